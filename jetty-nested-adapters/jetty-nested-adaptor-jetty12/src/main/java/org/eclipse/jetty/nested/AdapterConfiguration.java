@@ -0,0 +1,90 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested;
+
+/**
+ * The configuration of the adapters between the request and response of the outer server and the nested server.
+ */
+public class AdapterConfiguration
+{
+    private int _inputReadAheadChunks = 0;
+    private long _inputReadAheadBytes = 64 * 1024;
+    private int _inputAggregationSize = 0;
+
+    /**
+     * @return the maximum number of request content chunks demanded from the outer server ahead of the reader.
+     */
+    public int getInputReadAheadChunks()
+    {
+        return _inputReadAheadChunks;
+    }
+
+    /**
+     * @param inputReadAheadChunks the maximum number of request content chunks demanded from the outer server
+     * ahead of the reader, or 0 to only demand content once the reader needs it. Defaults to 0.
+     */
+    public void setInputReadAheadChunks(int inputReadAheadChunks)
+    {
+        if (inputReadAheadChunks < 0)
+            throw new IllegalArgumentException("Invalid read ahead chunks " + inputReadAheadChunks);
+        _inputReadAheadChunks = inputReadAheadChunks;
+    }
+
+    /**
+     * @return the maximum number of request content bytes held ahead of the reader.
+     */
+    public long getInputReadAheadBytes()
+    {
+        return _inputReadAheadBytes;
+    }
+
+    /**
+     * @param inputReadAheadBytes the maximum number of request content bytes held ahead of the reader, which bounds
+     * the memory used by read ahead as no more content is demanded ahead once it is reached. Defaults to 64KiB.
+     */
+    public void setInputReadAheadBytes(long inputReadAheadBytes)
+    {
+        if (inputReadAheadBytes < 0)
+            throw new IllegalArgumentException("Invalid read ahead bytes " + inputReadAheadBytes);
+        _inputReadAheadBytes = inputReadAheadBytes;
+    }
+
+    /**
+     * @return the maximum Content-Length of request content which is aggregated before the request is passed to
+     * the nested server.
+     */
+    public int getInputAggregationSize()
+    {
+        return _inputAggregationSize;
+    }
+
+    /**
+     * @param inputAggregationSize the maximum Content-Length of request content which is received from the outer
+     * server before the request is passed to the nested server, so that the nested server can read it without
+     * waiting, or 0 to never aggregate content. Defaults to 0.
+     */
+    public void setInputAggregationSize(int inputAggregationSize)
+    {
+        if (inputAggregationSize < 0)
+            throw new IllegalArgumentException("Invalid aggregation size " + inputAggregationSize);
+        _inputAggregationSize = inputAggregationSize;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{inputReadAheadChunks=%d,inputReadAheadBytes=%d,inputAggregationSize=%d}",
+            getClass().getSimpleName(), hashCode(), _inputReadAheadChunks, _inputReadAheadBytes, _inputAggregationSize);
+    }
+}
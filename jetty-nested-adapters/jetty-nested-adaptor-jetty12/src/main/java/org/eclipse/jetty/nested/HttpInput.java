@@ -3,121 +3,418 @@ package org.eclipse.jetty.nested;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.nested.api.NestedRequestResponse.ReadListener;
+import org.eclipse.jetty.nested.util.NestedEvents;
 import org.eclipse.jetty.server.Content;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.util.BufferUtil;
-import org.eclipse.jetty.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * <p>Reads the request content of the outer server for the nested server.</p>
+ * <p>The input is a lock-free state machine for the nested server, which is the only reader, and the
+ * {@link ReadListener} is only ever called outside of any lock. Content received from the outer server is
+ * queued, and up to {@link AdapterConfiguration#getInputReadAheadChunks()} chunks or
+ * {@link AdapterConfiguration#getInputReadAheadBytes()} bytes are demanded ahead of the reader, so receiving
+ * content from the network overlaps with the nested server processing the previous content.
+ * At most one demand is outstanding with the outer server at any time.</p>
+ * <p>The input may be closed by another thread, so the reader only moves the state with a compare and set from the
+ * state it expects. Whichever thread moves the state out of {@link State#CONTENT} owns the current content and
+ * releases it.</p>
+ */
 public class HttpInput extends InputStream
 {
-    private final Request _request;
-    private Content _content = new Content.Abstract(false, false){};
-    private ReadListener _readListener;
-    private AtomicBoolean _notifiedReadListener = new AtomicBoolean(false);
+    private static final Logger LOG = LoggerFactory.getLogger(HttpInput.class);
+
+    private enum State
+    {
+        /**
+         * The reader has no current content and is not waiting for content.
+         */
+        IDLE,
+
+        /**
+         * The reader is waiting for content and will be notified when it is queued.
+         */
+        DEMANDING,
+
+        /**
+         * The reader has current content.
+         */
+        CONTENT,
+
+        /**
+         * All the content has been read.
+         */
+        EOF,
+
+        /**
+         * Reading the content has failed.
+         */
+        FAILED,
 
-    private final AutoLock _lock  = new AutoLock();
+        /**
+         * The input has been closed and any content received later is released.
+         */
+        CLOSED
+    }
+
+    private final Request _request;
+    private final int _readAheadChunks;
+    private final long _readAheadBytes;
+    private final AtomicReference<State> _state = new AtomicReference<>(State.IDLE);
+    private final AtomicBoolean _notifiedAllDataRead = new AtomicBoolean();
+    private final AtomicBoolean _demanding = new AtomicBoolean();
+    private final Queue<Content> _queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _queuedChunks = new AtomicInteger();
+    private final AtomicLong _queuedBytes = new AtomicLong();
+    private volatile boolean _lastReceived;
+    private volatile Content _content;
+    private volatile Throwable _failure;
+    private volatile ReadListener _readListener;
+    private NestedEvents.ReadDemand _demandEvent;
 
     public HttpInput(Request request)
+    {
+        this(request, new AdapterConfiguration());
+    }
+
+    public HttpInput(Request request, AdapterConfiguration configuration)
     {
         _request = request;
+        _readAheadChunks = configuration.getInputReadAheadChunks();
+        _readAheadBytes = configuration.getInputReadAheadBytes();
     }
 
     public boolean isFinished()
     {
-        try(AutoLock l = _lock.lock())
-        {
-            return _content != null && _content.isLast();
-        }
+        State state = _state.get();
+        return state == State.EOF || state == State.CLOSED;
     }
 
     public boolean isReady()
     {
-        try(AutoLock l = _lock.lock())
+        while (true)
         {
-            if (_content != null)
+            State state = _state.get();
+            switch (state)
             {
-                if (BufferUtil.hasContent(_content.getByteBuffer()))
+                case CONTENT:
                 {
-                    return true;
+                    Content content = _content;
+                    if (content.hasRemaining())
+                        return true;
+
+                    // Release the empty content, then either signal that all data has been read or take the next.
+                    if (!_state.compareAndSet(State.CONTENT, content.isLast() ? State.EOF : State.IDLE))
+                        break;
+                    _content = null;
+                    content.release();
+                    break;
                 }
-                else
+
+                case IDLE:
                 {
-                    // Do not demand more content but signal that all data has been read.
-                    if (_content.isLast())
-                    {
-                        // TODO: do outside the lock.
-                        if (_readListener != null && !_notifiedReadListener.compareAndSet(false, true))
-                        {
-                            try
-                            {
-                                _readListener.onAllDataRead();
-                            }
-                            catch (Throwable t)
-                            {
-                                t.printStackTrace();
-                            }
-                        }
-                        return false;
-                    }
-
-                    // Release content and demand more.
-                    _content.release();
-                    _content = null;
-                    _request.demandContent(this::onContentAvailable);
+                    if (takeContent())
+                        break;
+                    if (!_state.compareAndSet(State.IDLE, State.DEMANDING))
+                        break;
+
+                    // Content may have been queued before the state was DEMANDING.
+                    if (!_queue.isEmpty() && _state.compareAndSet(State.DEMANDING, State.IDLE))
+                        break;
+                    demand(true);
                     return false;
                 }
-            }
-            else
-            {
-                return false;
+
+                case EOF:
+                {
+                    notifyAllDataRead();
+                    return false;
+                }
+
+                case DEMANDING:
+                case FAILED:
+                case CLOSED:
+                    return false;
+
+                default:
+                    throw new IllegalStateException(state.toString());
             }
         }
     }
 
     public void setReadListener(ReadListener readListener)
     {
-        try(AutoLock l = _lock.lock())
+        _readListener = readListener;
+    }
+
+    /**
+     * Take ownership of the current content without copying it.
+     * <p>The caller is responsible for calling {@link Content#release()} once the content has been consumed.</p>
+     * @return the current content, or null if there is no content available.
+     * @throws IOException if reading the content failed.
+     */
+    public Content readContent() throws IOException
+    {
+        if (_state.get() == State.IDLE)
+            takeContent();
+
+        State state = _state.get();
+        if (state == State.FAILED)
+            throw new IOException(_failure);
+        if (state != State.CONTENT)
+            return null;
+
+        Content content = _content;
+        if (!content.hasRemaining())
+            return null;
+
+        // The input may have been closed, in which case close() has released the content.
+        if (!_state.compareAndSet(State.CONTENT, content.isLast() ? State.EOF : State.IDLE))
+            return null;
+        _content = null;
+        return content;
+    }
+
+    /**
+     * Take the next queued content as the current content, called by the reader in {@link State#IDLE}.
+     * @return whether the state has changed from {@link State#IDLE}.
+     */
+    private boolean takeContent()
+    {
+        Content content = _queue.poll();
+        if (content == null)
+            return false;
+
+        _queuedChunks.decrementAndGet();
+        _queuedBytes.addAndGet(-BufferUtil.length(content.getByteBuffer()));
+
+        if (content instanceof Content.Error)
         {
-            _readListener = readListener;
+            _failure = ((Content.Error)content).getCause();
+            content.release();
+            if (_state.compareAndSet(State.IDLE, State.FAILED))
+                notifyError(_failure);
+            return true;
         }
+
+        // The content is current before the state is CONTENT, so close() can release it.
+        _content = content;
+        if (!_state.compareAndSet(State.IDLE, State.CONTENT))
+        {
+            // The input has been closed after the content was taken from the queue.
+            _content = null;
+            content.release();
+            return true;
+        }
+
+        // There is now room to read further ahead while the reader processes this content.
+        demand(false);
+        return true;
+    }
+
+    /**
+     * Demand content from the outer server, unless a demand is already outstanding or all content has been received.
+     * @param needed whether the reader needs content, otherwise content is only demanded if the read ahead is not full.
+     */
+    private void demand(boolean needed)
+    {
+        if (_lastReceived || _state.get() == State.CLOSED)
+            return;
+        if (!needed && (_queuedChunks.get() >= _readAheadChunks || _queuedBytes.get() >= _readAheadBytes))
+            return;
+        if (!_demanding.compareAndSet(false, true))
+            return;
+
+        if (NestedEvents.ReadDemand.isRecording())
+        {
+            _demandEvent = new NestedEvents.ReadDemand();
+            _demandEvent.begin();
+        }
+        _request.demandContent(this::onContentAvailable);
     }
 
     private void onContentAvailable()
     {
-        try(AutoLock l = _lock.lock())
+        Content content = _request.readContent();
+        commitDemandEvent(content);
+        if (LOG.isDebugEnabled())
+            LOG.debug("onContentAvailable {} {}", content, this);
+
+        // Nothing will read content received after the input was closed.
+        if (_state.get() == State.CLOSED)
         {
-            _content = _request.readContent();
+            if (content != null)
+                content.release();
+            return;
         }
 
-        if (_readListener != null)
+        // Spurious wakeup, the demand is still outstanding.
+        if (content == null)
         {
-            try
-            {
-                _readListener.onDataAvailable();
-            }
-            catch (Throwable t)
-            {
-                t.printStackTrace();
-            }
+            _request.demandContent(this::onContentAvailable);
+            return;
+        }
+
+        if (content.isLast() || content instanceof Content.Error)
+            _lastReceived = true;
+        _queuedChunks.incrementAndGet();
+        _queuedBytes.addAndGet(BufferUtil.length(content.getByteBuffer()));
+        _queue.offer(content);
+        _demanding.set(false);
+
+        // The input may have been closed before the content was queued.
+        if (_state.get() == State.CLOSED)
+        {
+            releaseQueued();
+            return;
+        }
+
+        // Read further ahead before waking up the reader.
+        demand(false);
+        if (_state.compareAndSet(State.DEMANDING, State.IDLE))
+            notifyDataAvailable();
+    }
+
+    private void commitDemandEvent(Content content)
+    {
+        NestedEvents.ReadDemand event = _demandEvent;
+        if (event == null)
+            return;
+
+        _demandEvent = null;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.uri = _request.getPath();
+            event.bytes = content == null ? 0 : BufferUtil.length(content.getByteBuffer());
+            event.last = content != null && content.isLast();
+            event.commit();
+        }
+    }
+
+    private void notifyDataAvailable()
+    {
+        ReadListener readListener = _readListener;
+        if (readListener == null)
+            return;
+
+        try
+        {
+            readListener.onDataAvailable();
+        }
+        catch (Throwable t)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("onDataAvailable failed {}", this, t);
+            notifyError(t);
+        }
+    }
+
+    private void notifyAllDataRead()
+    {
+        ReadListener readListener = _readListener;
+        if (readListener == null || !_notifiedAllDataRead.compareAndSet(false, true))
+            return;
+
+        try
+        {
+            readListener.onAllDataRead();
+        }
+        catch (Throwable t)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("onAllDataRead failed {}", this, t);
+            notifyError(t);
+        }
+    }
+
+    private void notifyError(Throwable failure)
+    {
+        ReadListener readListener = _readListener;
+        if (readListener == null)
+            return;
+
+        try
+        {
+            readListener.onError(failure);
+        }
+        catch (Throwable t)
+        {
+            LOG.warn("Failure while notifying ReadListener {}", readListener, t);
         }
     }
 
     @Override
     public int read() throws IOException
     {
-        if (_content == null || !_content.hasRemaining())
-            throw new IOException();
-        return _content.getByteBuffer().get();
+        if (!isReady())
+        {
+            if (isFinished())
+                return -1;
+            throw new IOException("Not ready for " + this);
+        }
+        return _content.getByteBuffer().get() & 0xFF;
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException
     {
         if (!isReady())
-            return 0;
-        return super.read(b, off, len);
+            return isFinished() ? -1 : 0;
+
+        ByteBuffer buffer = _content.getByteBuffer();
+        int length = Math.min(len, buffer.remaining());
+        buffer.get(b, off, length);
+        return length;
+    }
+
+    /**
+     * Close the input, releasing the current content and any content which has been read ahead but will not be
+     * read. Content received for a demand which is still outstanding is released when it arrives.
+     */
+    @Override
+    public void close()
+    {
+        State state = _state.getAndSet(State.CLOSED);
+        if (state == State.CLOSED)
+            return;
+
+        // Only release the current content if the reader has not already moved the state out of CONTENT.
+        if (state == State.CONTENT)
+        {
+            Content content = _content;
+            _content = null;
+            if (content != null)
+                content.release();
+        }
+        releaseQueued();
+    }
+
+    private void releaseQueued()
+    {
+        Content content;
+        while ((content = _queue.poll()) != null)
+        {
+            _queuedChunks.decrementAndGet();
+            _queuedBytes.addAndGet(-BufferUtil.length(content.getByteBuffer()));
+            content.release();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,queued=%d/%db,demanding=%b}", getClass().getSimpleName(), hashCode(),
+            _state.get(), _queuedChunks.get(), _queuedBytes.get(), _demanding.get());
     }
 }
@@ -1,25 +1,64 @@
 package org.eclipse.jetty.nested;
 
 import java.io.IOException;
-import java.io.InterruptedIOException;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.eclipse.jetty.nested.api.NestedRequestResponse.NestedCallback;
 import org.eclipse.jetty.nested.api.NestedRequestResponse.WriteListener;
+import org.eclipse.jetty.nested.util.NestedEvents;
 import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
-import org.eclipse.jetty.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public class HttpOutput extends OutputStream
+/**
+ * <p>Writes the response content of the nested server to the outer server.</p>
+ * <p>The output is a lock-free state machine and the {@link WriteListener} is never called while holding a lock.
+ * Writes which complete synchronously from within {@link WriteListener#onWritePossible()} do not call it
+ * recursively, instead the thread already notifying the listener iterates and notifies it again.</p>
+ * <p>All writes are asynchronous, as the connector always sets a {@link WriteListener} before writing.</p>
+ */
+public class HttpOutput
 {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpOutput.class);
+
+    private enum State
+    {
+        /**
+         * Output is ready, or the write listener has not yet been told otherwise.
+         */
+        IDLE,
+
+        /**
+         * {@link #isReady()} has returned false, so {@link WriteListener#onWritePossible()} must be called
+         * once the outstanding write has completed.
+         */
+        PENDING,
+
+        /**
+         * A call to {@link WriteListener#onWritePossible()} is due.
+         */
+        READY,
+
+        /**
+         * The last content has been written.
+         */
+        CLOSED,
+
+        /**
+         * A write has failed.
+         */
+        FAILED
+    }
+
     private final Response _response;
-    private final AutoLock _lock = new AutoLock();
-    private WriteListener _writeListener;
-    private int _outstandingWrites;
-    private boolean _closed = false;
+    private final AtomicReference<State> _state = new AtomicReference<>(State.IDLE);
+    private final AtomicInteger _outstandingWrites = new AtomicInteger();
+    private final AtomicInteger _notifying = new AtomicInteger();
+    private volatile WriteListener _writeListener;
 
     public HttpOutput(Response response)
     {
@@ -31,164 +70,259 @@ public class HttpOutput extends OutputStream
         return _response;
     }
 
-    private class WriteListenerCallback implements Callback
+    /**
+     * The callback of a single write, which counts the write as outstanding until it completes.
+     * Each write has its own JFR event, so overlapping writes do not overwrite each other's event.
+     */
+    private class WriteCallback implements Callback
     {
-        private CompletableFuture<Void> _blocker = new CompletableFuture<>();
+        private final NestedCallback _callback;
+        private final NestedEvents.WriteCallback _event;
 
-        @Override
-        public void succeeded()
+        private WriteCallback(NestedCallback callback, ByteBuffer... content)
         {
-            try(AutoLock l = lock())
+            _callback = callback;
+            if (NestedEvents.WriteCallback.isRecording())
             {
-                if (_closed)
-                    return;
-
-                if (_writeListener != null)
-                {
-                    try
-                    {
-                        // TODO: this can be reentrant.
-                        _writeListener.onWritePossible();
-                    }
-                    catch (Throwable t)
-                    {
-                        _writeListener.onError(t);
-                        _response.getRequest().failed(t);
-                    }
-                }
-
-                _outstandingWrites--;
-                _blocker.complete(null);
+                _event = new NestedEvents.WriteCallback();
+                _event.bytes = BufferUtil.remaining(content);
+                _event.begin();
+            }
+            else
+            {
+                _event = null;
             }
         }
 
         @Override
-        public void failed(Throwable x)
+        public void succeeded()
         {
-            try(AutoLock l = lock())
+            commitEvent(false);
+            try
             {
-                if (_writeListener != null)
-                {
-                    try
-                    {
-                        _writeListener.onError(x);
-                    }
-                    catch (Throwable t)
-                    {
-                        // TODO: Do we need to fail request if the callback was already failed?
-                        x.addSuppressed(t);
-                        _response.getRequest().failed(x);
-                    }
-                }
-
-                _outstandingWrites--;
-                _blocker.completeExceptionally(x);
+                onWriteComplete();
+            }
+            finally
+            {
+                _callback.succeeded();
             }
         }
 
-        public void block() throws IOException
+        @Override
+        public void failed(Throwable x)
         {
+            commitEvent(true);
             try
             {
-                _blocker.get();
+                onWriteFailed(x);
             }
-            catch (InterruptedException e)
+            finally
             {
-                InterruptedIOException exception = new InterruptedIOException();
-                exception.initCause(e);
-                throw exception;
+                _callback.failed(x);
             }
-            catch (ExecutionException e)
+        }
+
+        private void commitEvent(boolean failed)
+        {
+            if (_event == null)
+                return;
+
+            _event.end();
+            if (_event.shouldCommit())
             {
-                Throwable cause = e.getCause();
-                if (cause instanceof RuntimeException)
-                    throw new RuntimeException(cause);
-                else
-                    throw new IOException(cause);
+                _event.uri = _response.getRequest().getPath();
+                _event.failed = failed;
+                _event.commit();
             }
         }
+    }
 
-        public void reset()
+    /**
+     * @return whether no write is outstanding, as the outer {@link Response} only allows one pending write. If not,
+     * {@link WriteListener#onWritePossible()} is called once the outstanding write has completed.
+     */
+    public boolean isReady()
+    {
+        while (true)
         {
-            _blocker = new CompletableFuture<>();
+            State state = _state.get();
+            switch (state)
+            {
+                case IDLE:
+                {
+                    if (_outstandingWrites.get() == 0)
+                        return true;
+                    if (!_state.compareAndSet(State.IDLE, State.PENDING))
+                        break;
+
+                    // The outstanding write may have completed before the state was PENDING.
+                    if (_outstandingWrites.get() == 0 && _state.compareAndSet(State.PENDING, State.IDLE))
+                        return true;
+                    return false;
+                }
+
+                case PENDING:
+                case READY:
+                    return false;
+
+                case CLOSED:
+                case FAILED:
+                    // Let the next write fail rather than waiting for a callback which will never come.
+                    return true;
+
+                default:
+                    throw new IllegalStateException(state.toString());
+            }
         }
     }
 
-    AutoLock lock()
+    public void setWriteListener(WriteListener writeListener)
     {
-        return _lock.lock();
+        if (writeListener == null)
+            throw new NullPointerException();
+        if (_writeListener != null)
+            throw new IllegalStateException();
+        _writeListener = writeListener;
+
+        // Notify onWritePossible now if output is ready, otherwise once the outstanding writes have drained.
+        if (isReady() && _state.compareAndSet(State.IDLE, State.READY))
+            notifyWritePossible();
     }
 
-    public boolean isReady()
+    /**
+     * Account for a completed write, notifying the {@link WriteListener} if it is waiting for it to complete.
+     */
+    private void onWriteComplete()
     {
-        try(AutoLock l = lock())
-        {
-            return true;
-        }
+        int outstandingWrites = _outstandingWrites.decrementAndGet();
+        if (outstandingWrites == 0 && _state.compareAndSet(State.PENDING, State.READY))
+            notifyWritePossible();
     }
 
-    public void setWriteListener(WriteListener writeListener)
+    private void onWriteFailed(Throwable failure)
+    {
+        _outstandingWrites.decrementAndGet();
+        State state = _state.getAndSet(State.FAILED);
+        if (LOG.isDebugEnabled())
+            LOG.debug("write failed in {} {}", state, this, failure);
+        if (state != State.FAILED)
+            notifyError(failure);
+    }
+
+    /**
+     * Notify {@link WriteListener#onWritePossible()} without recursion. Only one thread notifies at a time, if
+     * another notification is due while it is notifying, the notifying thread iterates rather than the
+     * other thread calling the listener.
+     */
+    private void notifyWritePossible()
     {
-        try(AutoLock l = lock())
+        WriteListener writeListener = _writeListener;
+        if (writeListener == null)
+            return;
+
+        // 0 is not notifying, 1 is notifying and 2 is notifying with another notification due.
+        while (true)
         {
-            if (writeListener == null)
-                throw new NullPointerException();
-            if (_writeListener != null)
-                throw new IllegalStateException();
-            _writeListener = writeListener;
-
-            // Notify onWritePossible if there are no outstanding blocking writes.
-            if (_outstandingWrites <= 0)
+            int notifying = _notifying.get();
+            if (notifying == 0 && _notifying.compareAndSet(0, 1))
+                break;
+            if (notifying == 1 && _notifying.compareAndSet(1, 2))
+                return;
+            if (notifying == 2)
+                return;
+        }
+
+        while (true)
+        {
+            if (_state.compareAndSet(State.READY, State.IDLE))
             {
                 try
                 {
-                    _writeListener.onWritePossible();
+                    writeListener.onWritePossible();
                 }
                 catch (Throwable t)
                 {
-                    _writeListener.onError(t);
-                    _response.getRequest().failed(t);
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("onWritePossible failed {}", this, t);
+                    if (_state.getAndSet(State.FAILED) != State.FAILED)
+                    {
+                        notifyError(t);
+                        _response.getRequest().failed(t);
+                    }
                 }
             }
+
+            if (_notifying.compareAndSet(1, 0))
+                return;
+            _notifying.set(1);
         }
     }
 
-    @Override
-    public void flush() throws IOException
+    private void notifyError(Throwable failure)
     {
-        write(false);
-    }
+        WriteListener writeListener = _writeListener;
+        if (writeListener == null)
+            return;
 
-    @Override
-    public void close() throws IOException
-    {
-        write(true);
+        try
+        {
+            writeListener.onError(failure);
+        }
+        catch (Throwable t)
+        {
+            // TODO: Do we need to fail request if the callback was already failed?
+            failure.addSuppressed(t);
+            _response.getRequest().failed(failure);
+        }
     }
 
-    @Override
-    public void write(int b) throws IOException
+    /**
+     * Write content asynchronously, counting the write as outstanding until the callback is completed.
+     * @param last whether this is the last content of the response.
+     * @param callback the callback to complete once the outer server has completed the write.
+     * @param content the content to write, which must not be modified until the write has completed.
+     */
+    public void write(boolean last, NestedCallback callback, ByteBuffer... content)
     {
-        write(false, BufferUtil.toBuffer(new byte[]{(byte)b}));
-    }
+        try
+        {
+            checkWritable(last);
+        }
+        catch (IOException e)
+        {
+            callback.failed(e);
+            return;
+        }
 
-    @Override
-    public void write(byte[] b, int off, int len) throws IOException
-    {
-        write(false, BufferUtil.toBuffer(b, off, len));
+        _outstandingWrites.incrementAndGet();
+        _response.write(last, new WriteCallback(callback, content), content);
     }
 
-    private void write(boolean last, ByteBuffer... content) throws IOException
+    /**
+     * Check that content can be written, moving the output to {@link State#CLOSED} if it is the last content.
+     */
+    private void checkWritable(boolean last) throws IOException
     {
-        boolean blocking;
-        WriteListenerCallback callback = new WriteListenerCallback();
-        try(AutoLock l = lock())
+        while (true)
         {
-            _outstandingWrites++;
-            _response.write(last, callback, content);
-            blocking = (_writeListener == null);
+            State state = _state.get();
+            switch (state)
+            {
+                case CLOSED:
+                    throw new IOException("Closed " + this);
+                case FAILED:
+                    throw new IOException("Failed " + this);
+                default:
+                    if (!last || _state.compareAndSet(state, State.CLOSED))
+                        return;
+                    break;
+            }
         }
+    }
 
-        if (blocking)
-            callback.block();
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,outstanding=%d}", getClass().getSimpleName(), hashCode(), _state.get(), _outstandingWrites.get());
     }
 }
@@ -16,33 +16,91 @@ package org.eclipse.jetty.nested;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.nested.api.NestedRequestResponse;
 import org.eclipse.jetty.nested.util.URIUtil;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 
 public class Jetty12ServletRequestResponse implements NestedRequestResponse
 {
-    private static final int BUFFER_SIZE = 1024;
+    /**
+     * The methods keyed by their exact name, so the method of a request is looked up without parsing it again.
+     */
+    private static final Map<String, Method> METHODS = new HashMap<>();
+    private static final Map<HttpVersion, Version> VERSIONS = new EnumMap<>(HttpVersion.class);
+    private static final HttpFieldCache __httpFieldCache = new HttpFieldCache();
+
+    static
+    {
+        for (Method method : Method.values())
+        {
+            HttpMethod httpMethod = HttpMethod.fromString(method.asString());
+            if (httpMethod != null)
+                METHODS.put(httpMethod.asString(), method);
+        }
+        for (Version version : Version.values())
+        {
+            HttpVersion httpVersion = HttpVersion.fromString(version.asString());
+            if (httpVersion != null)
+                VERSIONS.put(httpVersion, version);
+        }
+    }
 
     private final Request _request;
     private final Response _response;
-    private final byte[] _outputBuffer = new byte[BUFFER_SIZE];
     private boolean _outClosed = false;
     private final HttpOutput _httpOutput;
-    private final HttpInput _httpInput;
+    private final AdapterConfiguration _configuration;
+    private final AtomicReference<HttpInput> _httpInput = new AtomicReference<>();
+    private final long _beginNanoTime = System.nanoTime();
+    private final Queue<org.eclipse.jetty.server.Content> _aggregatedContent = new ConcurrentLinkedQueue<>();
+    private long _aggregatedBytes;
+    private volatile boolean _contentComplete;
 
     public Jetty12ServletRequestResponse(Request request, Response response)
+    {
+        this(request, response, new AdapterConfiguration());
+    }
+
+    public Jetty12ServletRequestResponse(Request request, Response response, AdapterConfiguration configuration)
     {
         _request = request;
         _response = response;
+        _configuration = configuration;
         _httpOutput = new HttpOutput(response);
-        _httpInput = new HttpInput(request);
+    }
+
+    /**
+     * The input is only created once the nested server reads content, so it is never created for requests without content.
+     * It may be first used by any nested thread, or by the outer server releasing the content, so it is created atomically.
+     */
+    private HttpInput getHttpInput()
+    {
+        HttpInput httpInput = _httpInput.get();
+        if (httpInput != null)
+            return httpInput;
+
+        httpInput = new HttpInput(_request, _configuration);
+        if (_httpInput.compareAndSet(null, httpInput))
+            return httpInput;
+        return _httpInput.get();
     }
 
     @Override
@@ -54,10 +112,43 @@ public class Jetty12ServletRequestResponse implements NestedRequestResponse
     @Override
     public void stopAsync()
     {
+        // Release any content received that the nested server did not read.
+        releaseContent();
+
         // TODO: we are always async?
         _request.succeeded();
     }
 
+    @Override
+    public long getBeginNanoTime()
+    {
+        return _beginNanoTime;
+    }
+
+    @Override
+    public String getConnectionId()
+    {
+        return _request.getConnectionMetaData().getId();
+    }
+
+    @Override
+    public void addConnectionCloseListener(Runnable listener)
+    {
+        _request.getConnectionMetaData().getConnection().addEventListener(new Connection.Listener()
+        {
+            @Override
+            public void onOpened(Connection connection)
+            {
+            }
+
+            @Override
+            public void onClosed(Connection connection)
+            {
+                listener.run();
+            }
+        });
+    }
+
     @Override
     public String getRequestURI()
     {
@@ -76,6 +167,56 @@ public class Jetty12ServletRequestResponse implements NestedRequestResponse
         return _request.getMethod();
     }
 
+    @Override
+    public Method getHttpMethod()
+    {
+        // Unknown methods are null, so the nested server uses getMethod() instead.
+        return METHODS.get(_request.getMethod());
+    }
+
+    @Override
+    public Version getHttpVersion()
+    {
+        HttpVersion httpVersion = _request.getConnectionMetaData().getHttpVersion();
+        return httpVersion == null ? null : VERSIONS.get(httpVersion);
+    }
+
+    @Override
+    public String getScheme()
+    {
+        return _request.getHttpURI().getScheme();
+    }
+
+    @Override
+    public String getHost()
+    {
+        return _request.getHttpURI().getHost();
+    }
+
+    @Override
+    public int getPort()
+    {
+        return _request.getHttpURI().getPort();
+    }
+
+    @Override
+    public String getPath()
+    {
+        return _request.getPath();
+    }
+
+    @Override
+    public String getQuery()
+    {
+        return _request.getHttpURI().getQuery();
+    }
+
+    @Override
+    public boolean hasURIViolations()
+    {
+        return _request.getHttpURI().hasViolations();
+    }
+
     @Override
     public Enumeration<String> getHeaderNames()
     {
@@ -90,6 +231,21 @@ public class Jetty12ServletRequestResponse implements NestedRequestResponse
         return _request.getHeaders().getValues(headerName);
     }
 
+    @Override
+    public int getHeaderCount()
+    {
+        return _request.getHeaders().size();
+    }
+
+    @Override
+    public void forEachHeader(BiConsumer<String, String> action)
+    {
+        for (HttpField field : _request.getHeaders())
+        {
+            action.accept(field.getName(), field.getValue());
+        }
+    }
+
     @Override
     public boolean isSecure()
     {
@@ -102,44 +258,144 @@ public class Jetty12ServletRequestResponse implements NestedRequestResponse
         return _request.getContentLength();
     }
 
+    @Override
+    public boolean isContentComplete()
+    {
+        return _contentComplete;
+    }
+
+    /**
+     * Receive all the request content, which must have a known Content-Length, before the request is passed to
+     * the nested server. The nested server can then read the content without waiting for the outer server.
+     * The chunks of the outer server are held without copying and released as the nested server reads them.
+     * @param callback succeeded once all the content has been received, or failed if it could not be received.
+     */
+    public void aggregateContent(Callback callback)
+    {
+        long contentLength = _request.getContentLength();
+        if (contentLength < 0)
+        {
+            callback.failed(new IllegalStateException("Cannot aggregate content of length " + contentLength));
+            return;
+        }
+
+        aggregate(callback);
+    }
+
+    private void aggregate(Callback callback)
+    {
+        while (true)
+        {
+            org.eclipse.jetty.server.Content content = _request.readContent();
+            if (content == null)
+            {
+                _request.demandContent(() -> aggregate(callback));
+                return;
+            }
+
+            if (content instanceof org.eclipse.jetty.server.Content.Error)
+            {
+                Throwable cause = ((org.eclipse.jetty.server.Content.Error)content).getCause();
+                content.release();
+                releaseContent();
+                callback.failed(cause);
+                return;
+            }
+
+            _aggregatedBytes += BufferUtil.length(content.getByteBuffer());
+            boolean last = content.isLast();
+            if (content.hasRemaining())
+                _aggregatedContent.offer(content);
+            else
+                content.release();
+
+            if (_aggregatedBytes > _request.getContentLength())
+            {
+                releaseContent();
+                callback.failed(new IOException("Content exceeds Content-Length " + _request.getContentLength()));
+                return;
+            }
+
+            if (last)
+            {
+                _contentComplete = true;
+                callback.succeeded();
+                return;
+            }
+        }
+    }
+
     @Override
     public boolean isReadReady()
     {
-        return _httpInput.isReady();
+        if (_contentComplete)
+            return !_aggregatedContent.isEmpty();
+        return getHttpInput().isReady();
     }
 
     @Override
     public boolean isReadClosed()
     {
-        return _httpInput.isFinished();
+        if (_contentComplete)
+            return _aggregatedContent.isEmpty();
+        return getHttpInput().isFinished();
     }
 
     @Override
     public void closeInput() throws IOException
     {
-        _httpInput.close();
+        releaseContent();
+    }
+
+    /**
+     * Release any received content which will not be read by the nested server.
+     */
+    private void releaseContent()
+    {
+        HttpInput httpInput = _httpInput.get();
+        if (httpInput != null)
+            httpInput.close();
+
+        org.eclipse.jetty.server.Content content;
+        while ((content = _aggregatedContent.poll()) != null)
+        {
+            content.release();
+        }
     }
 
     @Override
     public Content read() throws IOException
     {
-        byte[] content = new byte[BUFFER_SIZE];
-        int len = _httpInput.read(content);
-        if (len < 0)
-            return null;
+        if (_contentComplete)
+            return readAggregatedContent();
+
+        org.eclipse.jetty.server.Content content = getHttpInput().readContent();
+        return content == null ? null : asNestedContent(content);
+    }
+
+    private Content readAggregatedContent()
+    {
+        org.eclipse.jetty.server.Content content = _aggregatedContent.poll();
+        return content == null ? null : asNestedContent(content);
+    }
 
-        ByteBuffer contentBuffer = ByteBuffer.wrap(content, 0, len);
+    /**
+     * Pass the buffer of the outer server straight through, it is released when the nested server releases it.
+     */
+    private static Content asNestedContent(org.eclipse.jetty.server.Content content)
+    {
         return new Content()
         {
             @Override
             public ByteBuffer getByteBuffer()
             {
-                return contentBuffer;
+                return content.getByteBuffer();
             }
 
             @Override
             public void release()
             {
+                content.release();
             }
         };
     }
@@ -147,7 +403,7 @@ public class Jetty12ServletRequestResponse implements NestedRequestResponse
     @Override
     public void setReadListener(ReadListener readListener)
     {
-        _httpInput.setReadListener(readListener);
+        getHttpInput().setReadListener(readListener);
     }
 
     @Override
@@ -163,40 +419,34 @@ public class Jetty12ServletRequestResponse implements NestedRequestResponse
     }
 
     @Override
-    public boolean isWriteReady()
+    public void commit(int status, Fields fields, boolean last, NestedCallback callback, ByteBuffer... content)
     {
-        return _httpOutput.isReady();
+        _response.setStatus(status);
+        HttpFields.Mutable headers = _response.getHeaders();
+        for (int i = 0; i < fields.size(); i++)
+        {
+            headers.add(__httpFieldCache.getField(fields.getName(i), fields.getValue(i)));
+        }
+        write(last, callback, content);
     }
 
     @Override
-    public boolean isWriteClosed()
+    public boolean isWriteReady()
     {
-        return _outClosed;
+        return _httpOutput.isReady();
     }
 
     @Override
-    public void write(ByteBuffer buffer) throws IOException
+    public boolean isWriteClosed()
     {
-        if (buffer.hasArray())
-        {
-            byte[] array = buffer.array();
-            int offset = buffer.arrayOffset() + buffer.position();
-            int length = buffer.remaining();
-            _httpOutput.write(array, offset, length);
-            buffer.position(buffer.position() + length);
-        }
-        else
-        {
-            int len = Math.min(buffer.remaining(), _outputBuffer.length);
-            buffer.get(_outputBuffer, 0, len);
-            _httpOutput.write(_outputBuffer, 0, len);
-        }
+        return _outClosed;
     }
 
     @Override
     public void write(boolean last, NestedCallback callback, ByteBuffer... content)
     {
-        _response.write(last, Callback.from(callback::succeeded, callback::failed), content);
+        // Write through the HttpOutput so the write is outstanding until it completes, see isWriteReady().
+        _httpOutput.write(last, callback, content);
     }
 
     @Override
@@ -0,0 +1,25 @@
+package org.eclipse.jetty.nested.api;//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer pool of the outer server which is shared with the nested server, so a buffer
+ * acquired on one side of the boundary can be released on the other.
+ */
+public interface NestedByteBufferPool
+{
+    ByteBuffer acquire(int size, boolean direct);
+
+    void release(ByteBuffer buffer);
+}
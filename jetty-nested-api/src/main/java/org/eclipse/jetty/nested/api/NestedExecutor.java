@@ -0,0 +1,32 @@
+package org.eclipse.jetty.nested.api;//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+import java.util.concurrent.Executor;
+
+/**
+ * A thread pool of the outer server which is shared with the nested server.
+ */
+public interface NestedExecutor extends Executor
+{
+    /**
+     * @param task the task to execute.
+     * @return true if the task could be executed immediately by an idle or reserved thread.
+     */
+    boolean tryExecute(Runnable task);
+
+    int getThreads();
+
+    int getIdleThreads();
+
+    boolean isLowOnThreads();
+}
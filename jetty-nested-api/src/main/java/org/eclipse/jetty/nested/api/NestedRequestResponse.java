@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Enumeration;
 import java.util.EventListener;
+import java.util.function.BiConsumer;
 
 public interface NestedRequestResponse
 {
@@ -33,6 +34,24 @@ public interface NestedRequestResponse
 
     void stopAsync();
 
+    /**
+     * @return the {@link System#nanoTime()} at which the outer server started to handle this request.
+     */
+    long getBeginNanoTime();
+
+    // === Connection Methods ===
+
+    /**
+     * @return an identifier of the outer connection which is unique while the connection is open,
+     * or null if requests cannot be associated with a persistent connection.
+     */
+    String getConnectionId();
+
+    /**
+     * @param listener a listener to be run once the outer connection has been closed.
+     */
+    void addConnectionCloseListener(Runnable listener);
+
     // === Read Methods ===
 
     String getRequestURI();
@@ -41,14 +60,111 @@ public interface NestedRequestResponse
 
     String getMethod();
 
+    /**
+     * The known HTTP methods, so the method can be passed without parsing it again.
+     */
+    enum Method
+    {
+        GET, POST, HEAD, PUT, OPTIONS, DELETE, TRACE, CONNECT, MOVE, PROXY, PRI;
+
+        public String asString()
+        {
+            return name();
+        }
+    }
+
+    /**
+     * The known HTTP versions, so the protocol can be passed without parsing it again.
+     */
+    enum Version
+    {
+        HTTP_0_9("HTTP/0.9"),
+        HTTP_1_0("HTTP/1.0"),
+        HTTP_1_1("HTTP/1.1"),
+        HTTP_2("HTTP/2.0"),
+        HTTP_3("HTTP/3.0");
+
+        private final String _string;
+
+        Version(String string)
+        {
+            _string = string;
+        }
+
+        public String asString()
+        {
+            return _string;
+        }
+    }
+
+    /**
+     * @return the method of the request, or null if it is not a known method, in which case {@link #getMethod()}
+     * must be used.
+     */
+    Method getHttpMethod();
+
+    /**
+     * @return the version of the request, or null if it is not a known version, in which case
+     * {@link #getProtocol()} must be used.
+     */
+    Version getHttpVersion();
+
+    /**
+     * @return the scheme of the request URI, or null if it is not known.
+     */
+    String getScheme();
+
+    /**
+     * @return the host of the request URI, or null if it is not known.
+     */
+    String getHost();
+
+    /**
+     * @return the port of the request URI, or -1 if it is not known.
+     */
+    int getPort();
+
+    /**
+     * @return the encoded path of the request URI.
+     */
+    String getPath();
+
+    /**
+     * @return the encoded query of the request URI, or null if there is no query.
+     */
+    String getQuery();
+
+    /**
+     * @return whether the outer server recorded violations when parsing the request URI, such as ambiguous segments,
+     * in which case the nested server parses {@link #getRequestURI()} again so its own compliance checks apply.
+     */
+    boolean hasURIViolations();
+
     Enumeration<String> getHeaderNames();
 
     Enumeration<String> getHeaders(String headerName);
 
+    /**
+     * @return the number of request header fields, counting each field of a repeated header.
+     */
+    int getHeaderCount();
+
+    /**
+     * Visit all the request header fields in a single pass, in the order they were received.
+     * @param action called with the name and value of each header field.
+     */
+    void forEachHeader(BiConsumer<String, String> action);
+
     boolean isSecure();
 
     long getContentLengthLong();
 
+    /**
+     * @return whether all the request content has already been received from the outer server, in which case
+     * {@link #read()} returns it without waiting and a {@link ReadListener} is not needed.
+     */
+    boolean isContentComplete();
+
     boolean isReadReady();
 
     boolean isReadClosed();
@@ -81,14 +197,37 @@ public interface NestedRequestResponse
 
     void addHeader(String name, String value);
 
+    /**
+     * The response header fields, accessed by index. The nested server copies its fields when the response is
+     * committed, so they do not change after {@link #commit(int, Fields, boolean, NestedCallback, ByteBuffer...)}
+     * and may be read from any thread.
+     */
+    interface Fields
+    {
+        int size();
+
+        String getName(int index);
+
+        String getValue(int index);
+    }
+
+    /**
+     * Commit the response with its status, header fields and first content in a single call, so that the outer
+     * server can generate the response head and the first content together.
+     * @param status the response status.
+     * @param fields a copy of the response header fields, which does not change after this call.
+     * @param last whether the content is the last content of the response.
+     * @param callback completed once the content has been written.
+     * @param content the first content of the response, which may be empty.
+     */
+    void commit(int status, Fields fields, boolean last, NestedCallback callback, ByteBuffer... content);
+
     boolean isWriteReady();
 
     boolean isWriteClosed();
 
     public void write(boolean last, NestedCallback callback, ByteBuffer... content);
 
-    void write(ByteBuffer buffer) throws IOException;
-
     void closeOutput() throws IOException;
 
     void setWriteListener(WriteListener writeListener);
@@ -0,0 +1,147 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A lock-free histogram of durations in nanoseconds.</p>
+ * <p>Values are counted in log-linear buckets: each power of two is divided into
+ * {@value #SUB_BUCKETS} linear buckets, so any recorded value is reported with an
+ * error of at most 12.5%, over the whole range of {@code long} values.</p>
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder _count = new LongAdder();
+    private final LongAdder _total = new LongAdder();
+    private final AtomicLong _max = new AtomicLong();
+
+    /**
+     * @param nanos the duration to record, negative durations are recorded as 0.
+     */
+    public void record(long nanos)
+    {
+        if (nanos < 0)
+            nanos = 0;
+        _counts.incrementAndGet(indexOf(nanos));
+        _count.increment();
+        _total.add(nanos);
+        _max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @param beginNanos the {@link System#nanoTime()} at the start of the duration to record.
+     * @return the current {@link System#nanoTime()}, so it can be used as the start of the next duration.
+     */
+    public long recordSince(long beginNanos)
+    {
+        long now = System.nanoTime();
+        record(now - beginNanos);
+        return now;
+    }
+
+    public long getCount()
+    {
+        return _count.sum();
+    }
+
+    public long getMax()
+    {
+        return _max.get();
+    }
+
+    public double getMean()
+    {
+        long count = _count.sum();
+        return count == 0 ? 0 : (double)_total.sum() / count;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100.
+     * @return the highest value of the bucket containing the percentile, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] = _counts.get(i);
+            count += counts[i];
+        }
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            cumulative += counts[i];
+            if (cumulative >= rank)
+                return Math.min(highestValueOf(i), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            _counts.set(i, 0);
+        }
+        _count.reset();
+        _total.reset();
+        _max.set(0);
+    }
+
+    static int indexOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long highestValueOf(int index)
+    {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long)(SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{count=%d,mean=%dus,p50=%dus,p99=%dus,p999=%dus,max=%dus}",
+            getClass().getSimpleName(), hashCode(), getCount(),
+            TimeUnit.NANOSECONDS.toMicros((long)getMean()),
+            TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(50)),
+            TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99)),
+            TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99.9)),
+            TimeUnit.NANOSECONDS.toMicros(getMax()));
+    }
+}
@@ -0,0 +1,172 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * <p>JDK Flight Recorder events for the hops of a request between the outer and nested servers.</p>
+ * <p>The events are named explicitly so their names are not changed by shading. Short lived events are
+ * allocated, checked with {@link Event#shouldCommit()} and then discarded, which the JIT can optimize
+ * away when they are disabled. Events which outlive a method should first check {@code isRecording()}
+ * so nothing is allocated when they are disabled.</p>
+ */
+public final class NestedEvents
+{
+    @Name("jetty.nested.Request")
+    @Label("Nested Request")
+    @Category({"Jetty", "Nested"})
+    @Description("A request handled by the nested server, from the nested connector receiving it until it has completed")
+    public static class Request extends Event
+    {
+        private static final EventType TYPE = EventType.getEventType(Request.class);
+
+        @Label("URI")
+        public String uri;
+
+        @Label("Method")
+        public String method;
+
+        @Label("Status")
+        public int status;
+
+        @Label("Bytes In")
+        @DataAmount
+        public long bytesIn;
+
+        @Label("Bytes Out")
+        @DataAmount
+        public long bytesOut;
+
+        public static boolean isRecording()
+        {
+            return TYPE.isEnabled();
+        }
+    }
+
+    @Name("jetty.nested.HeaderTranslation")
+    @Label("Nested Header Translation")
+    @Category({"Jetty", "Nested"})
+    @Description("The translation of the metadata of a request from the outer server to the nested server")
+    public static class HeaderTranslation extends Event
+    {
+        @Label("URI")
+        public String uri;
+
+        @Label("Header Count")
+        public int headerCount;
+    }
+
+    @Name("jetty.nested.ExecutorQueue")
+    @Label("Nested Executor Queue")
+    @Category({"Jetty", "Nested"})
+    @Description("The time a request waited in the executor of the nested server before being handled")
+    public static class ExecutorQueue extends Event
+    {
+        private static final EventType TYPE = EventType.getEventType(ExecutorQueue.class);
+
+        @Label("URI")
+        public String uri;
+
+        public static boolean isRecording()
+        {
+            return TYPE.isEnabled();
+        }
+    }
+
+    @Name("jetty.nested.ReadDemand")
+    @Label("Nested Read Demand")
+    @Category({"Jetty", "Nested"})
+    @Description("The time from demanding request content from the outer server until it was available")
+    public static class ReadDemand extends Event
+    {
+        private static final EventType TYPE = EventType.getEventType(ReadDemand.class);
+
+        @Label("URI")
+        public String uri;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Last")
+        public boolean last;
+
+        public static boolean isRecording()
+        {
+            return TYPE.isEnabled();
+        }
+    }
+
+    @Name("jetty.nested.WriteCallback")
+    @Label("Nested Write Callback")
+    @Category({"Jetty", "Nested"})
+    @Description("The time from writing response content to the outer server until the write was completed")
+    public static class WriteCallback extends Event
+    {
+        private static final EventType TYPE = EventType.getEventType(WriteCallback.class);
+
+        @Label("URI")
+        public String uri;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Failed")
+        public boolean failed;
+
+        public static boolean isRecording()
+        {
+            return TYPE.isEnabled();
+        }
+    }
+
+    @Name("jetty.nested.ContentFlusherIteration")
+    @Label("Nested Content Flusher Iteration")
+    @Category({"Jetty", "Nested"})
+    @Description("An iteration of the nested server flushing response content to the outer server")
+    public static class ContentFlusherIteration extends Event
+    {
+        private static final EventType TYPE = EventType.getEventType(ContentFlusherIteration.class);
+
+        @Label("URI")
+        public String uri;
+
+        @Label("Entries")
+        public int entries;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Last")
+        public boolean last;
+
+        public static boolean isRecording()
+        {
+            return TYPE.isEnabled();
+        }
+    }
+
+    private NestedEvents()
+    {
+    }
+}
@@ -0,0 +1,45 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested.util;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * <p>Access to virtual threads, which are only available from Java 21.</p>
+ * <p>This is the implementation for earlier versions of Java, the multi-release jar
+ * contains the Java 21 implementation when built with the {@code jdk21} profile.</p>
+ */
+public class VirtualThreads
+{
+    /**
+     * @return whether virtual threads are supported by this JVM.
+     */
+    public static boolean areSupported()
+    {
+        return false;
+    }
+
+    /**
+     * @return an executor which starts a new virtual thread for each task.
+     * @throws UnsupportedOperationException if virtual threads are not supported.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor()
+    {
+        throw new UnsupportedOperationException("Virtual threads require Java 21");
+    }
+
+    private VirtualThreads()
+    {
+    }
+}
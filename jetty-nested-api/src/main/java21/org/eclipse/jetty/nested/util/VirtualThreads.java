@@ -0,0 +1,37 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>Access to virtual threads, this is the Java 21 implementation of the multi-release jar.</p>
+ */
+public class VirtualThreads
+{
+    public static boolean areSupported()
+    {
+        return true;
+    }
+
+    public static ExecutorService newVirtualThreadPerTaskExecutor()
+    {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("nested-virtual-", 0).factory());
+    }
+
+    private VirtualThreads()
+    {
+    }
+}
@@ -0,0 +1,74 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested.jmh;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.nested.StubNestedRequestResponse;
+import org.eclipse.jetty.shaded.nested.internal.ContentFlusher;
+import org.eclipse.jetty.shaded.nested.internal.NestedStatistics;
+import org.eclipse.jetty.shaded.util.Callback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures flushing the content of a response through a {@link ContentFlusher} to an outer server
+ * which completes every write immediately.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContentFlusherBenchmark
+{
+    @Param({"1", "16"})
+    int writes;
+
+    @Param({"64", "8192"})
+    int size;
+
+    private final NestedStatistics _statistics = new NestedStatistics();
+    private ByteBuffer _content;
+
+    @Setup
+    public void setup()
+    {
+        _content = ByteBuffer.allocate(size);
+    }
+
+    @Benchmark
+    public long testFlushResponse()
+    {
+        StubNestedRequestResponse requestResponse = new StubNestedRequestResponse();
+        ContentFlusher flusher = new ContentFlusher(requestResponse, _statistics);
+        for (int i = 0; i < writes; i++)
+        {
+            flusher.write(_content.slice(), false, Callback.NOOP);
+        }
+        flusher.write(null, true, Callback.NOOP);
+        return requestResponse.getBytesWritten();
+    }
+}
@@ -0,0 +1,69 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.nested.StubNestedRequestResponse;
+import org.eclipse.jetty.shaded.http.MetaData;
+import org.eclipse.jetty.shaded.nested.internal.NestedConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the translation of the request metadata of the outer server in {@link NestedConnection}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HeaderTranslationBenchmark
+{
+    @Param({"4", "16"})
+    int headers;
+
+    private StubNestedRequestResponse _requestResponse;
+
+    @Setup
+    public void setup()
+    {
+        _requestResponse = new StubNestedRequestResponse()
+            .requestURI("/context/servlet/path?name=value")
+            .header("Host", "localhost:8080")
+            .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
+            .header("Accept-Encoding", "gzip, deflate")
+            .header("User-Agent", "Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0");
+        for (int i = 4; i < headers; i++)
+        {
+            _requestResponse.header("X-Custom-" + i, "value-" + i);
+        }
+    }
+
+    @Benchmark
+    public MetaData.Request testNewRequestMetaData()
+    {
+        return NestedConnection.newRequestMetaData(_requestResponse);
+    }
+}
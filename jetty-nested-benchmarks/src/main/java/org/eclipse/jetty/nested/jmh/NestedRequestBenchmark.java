@@ -0,0 +1,186 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested.jmh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.nested.JettyNestedHandler;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.shaded.servlet.ServletContextHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures a full request to the same servlet, either nested in a Jetty 12 server with a
+ * {@link JettyNestedHandler}, or served directly by the Jetty 10 server which is nested.</p>
+ * <p>The difference between the two is the cost of the nested boundary, including the
+ * adapters for the request content (HttpInput) and response content (HttpOutput).</p>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NestedRequestBenchmark
+{
+    private static final int SMALL_WRITES = 512;
+    private static final int UPLOAD_SIZE = 64 * 1024;
+
+    @Param({"nested", "direct"})
+    String server;
+
+    private Server _nestedServer;
+    private org.eclipse.jetty.shaded.server.Server _directServer;
+    private HttpClient _httpClient;
+    private URI _uri;
+    private byte[] _upload;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(BenchmarkServlet.class, "/*");
+
+        int port;
+        if ("nested".equals(server))
+        {
+            _nestedServer = new Server();
+            ServerConnector connector = new ServerConnector(_nestedServer);
+            _nestedServer.addConnector(connector);
+            JettyNestedHandler nestedHandler = new JettyNestedHandler();
+            nestedHandler.getNestedServer().setHandler(context);
+            _nestedServer.setHandler(nestedHandler);
+            _nestedServer.start();
+            port = connector.getLocalPort();
+        }
+        else
+        {
+            _directServer = new org.eclipse.jetty.shaded.server.Server();
+            org.eclipse.jetty.shaded.server.ServerConnector connector = new org.eclipse.jetty.shaded.server.ServerConnector(_directServer);
+            _directServer.addConnector(connector);
+            _directServer.setHandler(context);
+            _directServer.start();
+            port = connector.getLocalPort();
+        }
+
+        _uri = URI.create("http://localhost:" + port);
+        _upload = new byte[UPLOAD_SIZE];
+        _httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        if (_nestedServer != null)
+            _nestedServer.stop();
+        if (_directServer != null)
+            _directServer.stop();
+    }
+
+    @Benchmark
+    public String testGet() throws Exception
+    {
+        HttpRequest request = HttpRequest.newBuilder(_uri.resolve("/hello")).GET().build();
+        return send(request);
+    }
+
+    @Benchmark
+    public String testSmallWrites() throws Exception
+    {
+        HttpRequest request = HttpRequest.newBuilder(_uri.resolve("/small-writes")).GET().build();
+        return send(request);
+    }
+
+    @Benchmark
+    public String testUpload() throws Exception
+    {
+        HttpRequest request = HttpRequest.newBuilder(_uri.resolve("/upload"))
+            .POST(HttpRequest.BodyPublishers.ofByteArray(_upload))
+            .build();
+        return send(request);
+    }
+
+    private String send(HttpRequest request) throws Exception
+    {
+        HttpResponse<String> response = _httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200)
+            throw new IllegalStateException("Unexpected status " + response.statusCode());
+        return response.body();
+    }
+
+    public static class BenchmarkServlet extends HttpServlet
+    {
+        private static final byte[] SMALL_CONTENT = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+        @Override
+        protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException
+        {
+            response.setContentType("text/plain");
+            switch (request.getPathInfo())
+            {
+                case "/small-writes":
+                {
+                    OutputStream output = response.getOutputStream();
+                    for (int i = 0; i < SMALL_WRITES; i++)
+                    {
+                        output.write(SMALL_CONTENT);
+                    }
+                    break;
+                }
+                case "/upload":
+                {
+                    long total = 0;
+                    byte[] buffer = new byte[4096];
+                    InputStream input = request.getInputStream();
+                    for (int read = input.read(buffer); read >= 0; read = input.read(buffer))
+                    {
+                        total += read;
+                    }
+                    response.getWriter().print(total);
+                    break;
+                }
+                default:
+                {
+                    response.getWriter().print("Hello World");
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.nested.util.URIUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class URIUtilBenchmark
+{
+    private String _path = "/context/servlet/path/info";
+    private String _query = "name=value&other=something";
+    private String _base = "/context/";
+    private String _relative = "/servlet/path";
+
+    @Benchmark
+    public String testAddPathQuery()
+    {
+        return URIUtil.addPathQuery(_path, _query);
+    }
+
+    @Benchmark
+    public String testAddPathNoQuery()
+    {
+        return URIUtil.addPathQuery(_path, null);
+    }
+
+    @Benchmark
+    public String testAddPaths()
+    {
+        return URIUtil.addPaths(_base, _relative);
+    }
+}
@@ -0,0 +1,70 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.nested.api.NestedByteBufferPool;
+
+/**
+ * <p>The {@link ByteBufferPool} of the nested server, which is backed by the buffer pool of the outer server
+ * when a {@link NestedByteBufferPool} has been set, otherwise by a local {@link ArrayByteBufferPool}.</p>
+ */
+public class BridgedByteBufferPool implements ByteBufferPool
+{
+    private final ByteBufferPool _localPool = new ArrayByteBufferPool();
+    private volatile NestedByteBufferPool _nestedByteBufferPool;
+
+    public NestedByteBufferPool getNestedByteBufferPool()
+    {
+        return _nestedByteBufferPool;
+    }
+
+    /**
+     * This must only be changed while the nested server is stopped, so that buffers are released to the pool they were acquired from.
+     * @param nestedByteBufferPool the buffer pool of the outer server, or null to use a local pool.
+     */
+    public void setNestedByteBufferPool(NestedByteBufferPool nestedByteBufferPool)
+    {
+        _nestedByteBufferPool = nestedByteBufferPool;
+    }
+
+    @Override
+    public ByteBuffer acquire(int size, boolean direct)
+    {
+        NestedByteBufferPool nestedByteBufferPool = _nestedByteBufferPool;
+        if (nestedByteBufferPool != null)
+            return nestedByteBufferPool.acquire(size, direct);
+        return _localPool.acquire(size, direct);
+    }
+
+    @Override
+    public void release(ByteBuffer buffer)
+    {
+        NestedByteBufferPool nestedByteBufferPool = _nestedByteBufferPool;
+        if (nestedByteBufferPool != null)
+            nestedByteBufferPool.release(buffer);
+        else
+            _localPool.release(buffer);
+    }
+
+    @Override
+    public String toString()
+    {
+        NestedByteBufferPool nestedByteBufferPool = _nestedByteBufferPool;
+        return String.format("%s@%x{%s}", getClass().getSimpleName(), hashCode(), nestedByteBufferPool == null ? _localPool : nestedByteBufferPool);
+    }
+}
@@ -14,25 +14,108 @@
 package org.eclipse.jetty.nested;
 
 import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.nested.api.NestedByteBufferPool;
 import org.eclipse.jetty.nested.api.NestedRequestResponse;
+import org.eclipse.jetty.nested.internal.NestedChannelPool;
 import org.eclipse.jetty.nested.internal.NestedConnection;
 import org.eclipse.jetty.nested.internal.NestedConnectionFactory;
 import org.eclipse.jetty.nested.internal.NestedEndpoint;
+import org.eclipse.jetty.nested.internal.NestedStatistics;
+import org.eclipse.jetty.nested.util.LatencyHistogram;
 import org.eclipse.jetty.server.AbstractConnector;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 
+@ManagedObject("Connector receiving requests from the outer server")
 public class NestedConnector extends AbstractConnector
 {
+    /**
+     * How the handling of a request is dispatched after it has been received from the outer server.
+     */
+    public enum DispatchMode
+    {
+        /**
+         * Always execute the handling of the request with the executor of the nested server.
+         */
+        EXECUTE,
+
+        /**
+         * Always handle the request on the thread calling {@link #service(NestedRequestResponse)}.
+         */
+        INLINE,
+
+        /**
+         * Handle the request on the calling thread if it has no content, or all of its content has already been
+         * received, as it then cannot block the calling thread waiting for the outer server to read content,
+         * otherwise execute it with the executor of the nested server.
+         */
+        ADAPTIVE
+    }
+
+    /**
+     * The phases of a request for which latencies are recorded.
+     */
+    public enum Phase
+    {
+        /**
+         * From the outer server handling the request until its metadata has been translated for the nested server.
+         */
+        TRANSLATION,
+
+        /**
+         * From the translated metadata until the nested server starts handling the request, including any
+         * time queued in the executor.
+         */
+        DISPATCH,
+
+        /**
+         * From the nested server starting to handle the request until the response is committed.
+         */
+        FIRST_BYTE,
+
+        /**
+         * From the response being committed until the request has completed.
+         */
+        COMPLETION,
+
+        /**
+         * From the outer server handling the request until the request has completed.
+         */
+        TOTAL
+    }
+
     private final HttpConfiguration _httpConfiguration = new HttpConfiguration();
+    private final Map<String, NestedConnection> _connections = new ConcurrentHashMap<>();
+    private final Set<String> _outerConnections = ConcurrentHashMap.newKeySet();
+    private final NestedStatistics _statistics = new NestedStatistics();
+    private final Map<Phase, LatencyHistogram> _latencies = new EnumMap<>(Phase.class);
+    private final LongAdder _closedChannelPoolHits = new LongAdder();
+    private final LongAdder _closedChannelPoolMisses = new LongAdder();
+    private int _channelPoolCapacity = 4;
+    private DispatchMode _dispatchMode = DispatchMode.EXECUTE;
+    private volatile boolean _recordLatencies;
 
     public NestedConnector(Server server)
     {
-        super(server, null, null, null, 0, new NestedConnectionFactory());
+        super(server, null, null, new BridgedByteBufferPool(), 0, new NestedConnectionFactory());
         _httpConfiguration.setSendDateHeader(false);
         _httpConfiguration.setSendServerVersion(false);
         _httpConfiguration.setSendXPoweredBy(false);
+        for (Phase phase : Phase.values())
+        {
+            _latencies.put(phase, new LatencyHistogram());
+        }
     }
 
     public HttpConfiguration getHttpConfiguration()
@@ -40,13 +123,266 @@ public class NestedConnector extends AbstractConnector
         return _httpConfiguration;
     }
 
+    public NestedByteBufferPool getNestedByteBufferPool()
+    {
+        return ((BridgedByteBufferPool)getByteBufferPool()).getNestedByteBufferPool();
+    }
+
+    /**
+     * @param nestedByteBufferPool the buffer pool of the outer server to back the buffer pool of this connector,
+     * or null to use a buffer pool local to the nested server.
+     */
+    public void setNestedByteBufferPool(NestedByteBufferPool nestedByteBufferPool)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        ((BridgedByteBufferPool)getByteBufferPool()).setNestedByteBufferPool(nestedByteBufferPool);
+    }
+
+    /**
+     * @return the statistics of all the traffic received from the outer server, aggregated over all connections.
+     */
+    public NestedStatistics getStatistics()
+    {
+        return _statistics;
+    }
+
+    @ManagedAttribute("The number of requests received from the outer server")
+    public long getRequests()
+    {
+        return _statistics.getRequests();
+    }
+
+    @ManagedAttribute("The number of responses committed to the outer server")
+    public long getResponses()
+    {
+        return _statistics.getResponses();
+    }
+
+    @ManagedAttribute("The number of failures reading from or writing to the outer server")
+    public long getErrors()
+    {
+        return _statistics.getErrors();
+    }
+
+    @ManagedAttribute("The number of request content bytes read from the outer server")
+    public long getBytesIn()
+    {
+        return _statistics.getBytesIn();
+    }
+
+    @ManagedAttribute("The number of response content bytes written to the outer server")
+    public long getBytesOut()
+    {
+        return _statistics.getBytesOut();
+    }
+
+    @ManagedAttribute("The number of open connections")
+    public int getConnectionCount()
+    {
+        return _connections.size();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        _statistics.reset();
+        for (LatencyHistogram histogram : _latencies.values())
+        {
+            histogram.reset();
+        }
+    }
+
+    @ManagedAttribute("Whether the latencies of the phases of each request are recorded")
+    public boolean isRecordLatencies()
+    {
+        return _recordLatencies;
+    }
+
+    /**
+     * @param recordLatencies whether the latencies of each {@link Phase} of a request are recorded, defaults to false.
+     */
+    public void setRecordLatencies(boolean recordLatencies)
+    {
+        _recordLatencies = recordLatencies;
+    }
+
+    /**
+     * @param phase the phase of a request.
+     * @return the histogram of the latencies recorded for the phase.
+     */
+    public LatencyHistogram getLatencyHistogram(Phase phase)
+    {
+        return _latencies.get(phase);
+    }
+
+    @ManagedAttribute("The latencies recorded for the phases of each request")
+    public String getLatencies()
+    {
+        return _latencies.toString();
+    }
+
+    @ManagedAttribute("How the handling of a request is dispatched")
+    public DispatchMode getDispatchMode()
+    {
+        return _dispatchMode;
+    }
+
+    /**
+     * @param dispatchMode how the handling of a request is dispatched, defaults to {@link DispatchMode#EXECUTE}.
+     */
+    public void setDispatchMode(DispatchMode dispatchMode)
+    {
+        _dispatchMode = Objects.requireNonNull(dispatchMode);
+    }
+
+    /**
+     * @return the maximum number of recycled channels pooled for each connection.
+     */
+    @ManagedAttribute("The maximum number of recycled channels pooled for each connection")
+    public int getChannelPoolCapacity()
+    {
+        return _channelPoolCapacity;
+    }
+
+    /**
+     * @param channelPoolCapacity the maximum number of recycled channels pooled for each connection, or 0 to not recycle channels.
+     */
+    public void setChannelPoolCapacity(int channelPoolCapacity)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _channelPoolCapacity = channelPoolCapacity;
+    }
+
+    /**
+     * @return the number of requests which were handled with a recycled channel.
+     */
+    @ManagedAttribute("The number of requests handled with a recycled channel")
+    public long getChannelPoolHits()
+    {
+        long hits = _closedChannelPoolHits.sum();
+        for (NestedConnection connection : _connections.values())
+        {
+            NestedChannelPool channelPool = connection.getChannelPool();
+            if (channelPool != null)
+                hits += channelPool.getHits();
+        }
+        return hits;
+    }
+
+    /**
+     * @return the number of requests which needed a new channel because none could be recycled.
+     */
+    @ManagedAttribute("The number of requests which needed a new channel")
+    public long getChannelPoolMisses()
+    {
+        long misses = _closedChannelPoolMisses.sum();
+        for (NestedConnection connection : _connections.values())
+        {
+            NestedChannelPool channelPool = connection.getChannelPool();
+            if (channelPool != null)
+                misses += channelPool.getMisses();
+        }
+        return misses;
+    }
+
     public void service(NestedRequestResponse nestedRequestResponse) throws IOException
     {
-        // TODO: recover existing endpoint and connection from WeakReferenceMap with request as key, or some other way of
-        //  doing persistent connection. There is a proposal in the servlet spec to have connection IDs.
+        NestedConnection connection = getNestedConnection(nestedRequestResponse);
+        connection.handle(nestedRequestResponse);
+    }
+
+    private NestedConnection getNestedConnection(NestedRequestResponse nestedRequestResponse)
+    {
+        // Without a connection ID we cannot do persistent connections, so use a new connection for each request.
+        String connectionId = nestedRequestResponse.getConnectionId();
+        if (connectionId == null)
+            return newNestedConnection(nestedRequestResponse);
+
+        while (true)
+        {
+            NestedConnection connection = _connections.get(connectionId);
+            if (connection != null && connection.getEndPoint().isOpen())
+                return connection;
+
+            // Replace any connection that has been closed but not yet removed.
+            NestedConnection newConnection = newNestedConnection(nestedRequestResponse);
+            boolean added = (connection == null)
+                ? _connections.putIfAbsent(connectionId, newConnection) == null
+                : _connections.replace(connectionId, connection, newConnection);
+            if (!added)
+                continue;
+
+            onEndPointOpened(newConnection.getEndPoint());
+            newConnection.addEventListener(new Connection.Listener.Adapter()
+            {
+                @Override
+                public void onClosed(Connection connection)
+                {
+                    _connections.remove(connectionId, newConnection);
+                    onConnectionClosed(newConnection);
+                }
+            });
+            newConnection.onOpen();
+
+            // Only one listener is added for each outer connection, which closes whichever nested connection is
+            // current for it, so replaced connections are not kept reachable until the outer connection closes.
+            if (_outerConnections.add(connectionId))
+            {
+                try
+                {
+                    nestedRequestResponse.addConnectionCloseListener(() -> onOuterConnectionClosed(connectionId));
+                }
+                catch (Throwable x)
+                {
+                    // Nothing would close the connection when the outer connection is closed.
+                    _outerConnections.remove(connectionId);
+                    newConnection.close();
+                    throw x;
+                }
+            }
+            return newConnection;
+        }
+    }
+
+    private NestedConnection newNestedConnection(NestedRequestResponse nestedRequestResponse)
+    {
         NestedEndpoint endPoint = new NestedEndpoint(nestedRequestResponse);
-        NestedConnection connection = new NestedConnection(this, endPoint);
-        connection.handle();
+        NestedConnection connection = (NestedConnection)getDefaultConnectionFactory().newConnection(this, endPoint);
+        endPoint.setConnection(connection);
+        return connection;
+    }
+
+    private void onOuterConnectionClosed(String connectionId)
+    {
+        _outerConnections.remove(connectionId);
+        NestedConnection connection = _connections.get(connectionId);
+        if (connection != null)
+            connection.close();
+    }
+
+    private void onConnectionClosed(NestedConnection connection)
+    {
+        onEndPointClosed(connection.getEndPoint());
+
+        NestedChannelPool channelPool = connection.getChannelPool();
+        if (channelPool != null)
+        {
+            channelPool.clear();
+            _closedChannelPoolHits.add(channelPool.getHits());
+            _closedChannelPoolMisses.add(channelPool.getMisses());
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        for (NestedConnection connection : _connections.values())
+        {
+            connection.close();
+        }
+        super.doStop();
     }
 
     @Override
@@ -0,0 +1,129 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested;
+
+import java.util.concurrent.Executor;
+
+import org.eclipse.jetty.nested.api.NestedExecutor;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.AutoLock;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.eclipse.jetty.util.thread.TryExecutor;
+
+/**
+ * <p>A {@link ThreadPool} for the nested server which executes jobs with an {@link Executor} provided from outside
+ * the nested server, for example a virtual thread per task executor or the thread pool of the outer server.</p>
+ * <p>If the {@link Executor} is a {@link NestedExecutor} then its sizes and {@link #tryExecute(Runnable)} are used,
+ * so the nested server sees the limits and reserved threads of the outer thread pool.</p>
+ * <p>The lifecycle of the {@link Executor} is not managed by this pool.</p>
+ */
+public class NestedThreadPool extends AbstractLifeCycle implements ThreadPool, TryExecutor
+{
+    private final AutoLock.WithCondition _joinLock = new AutoLock.WithCondition();
+    private volatile Executor _executor;
+
+    /**
+     * Create a pool whose executor is set with {@link #setExecutor(Executor)} before it is started.
+     */
+    public NestedThreadPool()
+    {
+    }
+
+    public NestedThreadPool(Executor executor)
+    {
+        _executor = executor;
+    }
+
+    public Executor getExecutor()
+    {
+        return _executor;
+    }
+
+    public void setExecutor(Executor executor)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _executor = executor;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (_executor == null)
+            throw new IllegalStateException("No Executor");
+        super.doStart();
+    }
+
+    @Override
+    public void execute(Runnable job)
+    {
+        _executor.execute(job);
+    }
+
+    @Override
+    public boolean tryExecute(Runnable task)
+    {
+        Executor executor = _executor;
+        return executor instanceof NestedExecutor && ((NestedExecutor)executor).tryExecute(task);
+    }
+
+    @Override
+    public void join() throws InterruptedException
+    {
+        try (AutoLock.WithCondition l = _joinLock.lock())
+        {
+            while (isRunning())
+            {
+                l.await();
+            }
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        try (AutoLock.WithCondition l = _joinLock.lock())
+        {
+            l.signalAll();
+        }
+    }
+
+    @Override
+    public int getThreads()
+    {
+        Executor executor = _executor;
+        return executor instanceof NestedExecutor ? ((NestedExecutor)executor).getThreads() : 0;
+    }
+
+    @Override
+    public int getIdleThreads()
+    {
+        Executor executor = _executor;
+        return executor instanceof NestedExecutor ? ((NestedExecutor)executor).getIdleThreads() : 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads()
+    {
+        Executor executor = _executor;
+        return executor instanceof NestedExecutor && ((NestedExecutor)executor).isLowOnThreads();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,%s}", getClass().getSimpleName(), hashCode(), getState(), _executor);
+    }
+}
@@ -14,26 +14,56 @@
 package org.eclipse.jetty.nested.internal;
 
 import java.nio.ByteBuffer;
-import java.nio.channels.WritePendingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.nested.api.NestedRequestResponse;
+import org.eclipse.jetty.nested.util.NestedEvents;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IteratingCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * <p>Flushes the response content of the nested server to the {@link NestedRequestResponse}.</p>
+ * <p>Entries are queued without locking and every iteration drains all the pending entries into a
+ * single gathering {@link NestedRequestResponse#write(boolean, NestedRequestResponse.NestedCallback, ByteBuffer...)},
+ * the callbacks of the drained entries are succeeded once that write completes.</p>
+ */
 public class ContentFlusher extends IteratingCallback
 {
     private static final Logger log = LoggerFactory.getLogger(ContentFlusher.class);
+    private static final ByteBuffer[] NO_BUFFERS = new ByteBuffer[0];
 
     private final NestedRequestResponse nestedRequestResponse;
-    private Entry current;
-    private Throwable failure;
+    private final NestedStatistics statistics;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final List<Entry> flushed = new ArrayList<>();
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private final NestedRequestResponse.NestedCallback writeCallback = new NestedRequestResponse.NestedCallback()
+    {
+        @Override
+        public void succeeded()
+        {
+            ContentFlusher.this.succeeded();
+        }
 
-    public ContentFlusher(NestedRequestResponse nestedRequestResponse)
+        @Override
+        public void failed(Throwable x)
+        {
+            ContentFlusher.this.failed(x);
+        }
+    };
+
+    public ContentFlusher(NestedRequestResponse nestedRequestResponse, NestedStatistics statistics)
     {
         this.nestedRequestResponse = nestedRequestResponse;
+        this.statistics = statistics;
         nestedRequestResponse.setWriteListener(new NestedRequestResponse.WriteListener()
         {
             @Override
@@ -50,77 +80,148 @@ public class ContentFlusher extends IteratingCallback
         });
     }
 
+    /**
+     * Queue the first write of the response, which commits the response head together with the content, so both
+     * are passed to the outer server in a single call. Must be called before any other write.
+     * @param status the response status.
+     * @param fields the response header fields, which must not change after this call.
+     * @param buffer the first content of the response, which may be empty.
+     * @param last whether the content is the last content of the response.
+     * @param callback completed once the content has been written.
+     */
+    public void commit(int status, NestedRequestResponse.Fields fields, ByteBuffer buffer, boolean last, Callback callback)
+    {
+        enqueue(new Entry(status, fields, buffer, last, callback));
+    }
+
     public final void write(ByteBuffer buffer, boolean last, Callback callback)
     {
-        Entry entry = new Entry(buffer, last, callback);
+        enqueue(new Entry(0, null, buffer, last, callback));
+    }
+
+    private void enqueue(Entry entry)
+    {
         if (log.isDebugEnabled())
             log.debug("Queuing {}", entry);
 
-        Throwable error = null;
-        synchronized (this)
+        Throwable error = failure.get();
+        if (error != null)
         {
-            if (failure != null)
-                error = failure;
-            else if (current != null)
-                error = new WritePendingException();
-            else
-                current = new Entry(buffer, last, callback);
+            notifyCallbackFailure(entry.callback, error);
+            return;
         }
 
+        queue.offer(entry);
+        iterate();
+
+        // The flusher may have failed concurrently, in which case nothing would process the entry.
+        error = failure.get();
         if (error != null)
-            notifyCallbackFailure(callback, failure);
-        else
-            iterate();
+            failQueued(error);
     }
 
     public void fail(Throwable t)
     {
-        synchronized (this)
-        {
-            if (failure == null)
-                failure = t;
-        }
-
+        failure.compareAndSet(null, t);
         iterate();
     }
 
     @Override
     protected Action process() throws Throwable
     {
+        // The previous gathering write has completed, so succeed the entries it contained.
+        boolean last = succeedFlushed();
+        if (last)
+            return Action.SUCCEEDED;
+
+        // The event outlives the loop below, so it is only allocated when recording.
+        NestedEvents.ContentFlusherIteration event = null;
+        if (NestedEvents.ContentFlusherIteration.isRecording())
+        {
+            event = new NestedEvents.ContentFlusherIteration();
+            event.begin();
+        }
         while (true)
         {
-            Entry entry;
-            synchronized (this)
-            {
-                if (failure != null)
-                    throw failure;
-                entry = current;
-            }
+            Throwable error = failure.get();
+            if (error != null)
+                throw error;
 
             // The initial onWritePossible callback may be notified before a write.
-            if (entry == null)
+            if (queue.isEmpty())
                 return Action.IDLE;
 
             // We will get called back by the WriteListener when ready to write.
             if (!nestedRequestResponse.isWriteReady())
                 return Action.IDLE;
 
-            if (BufferUtil.isEmpty(entry.buffer))
+            // Drain all the pending entries, stopping after the last one.
+            // The commit entry is always the first entry queued, so it is always the first entry of its write.
+            int status = 0;
+            NestedRequestResponse.Fields fields = null;
+            Entry entry;
+            while ((entry = queue.poll()) != null)
             {
-                current = null;
+                if (entry.fields != null)
+                {
+                    status = entry.status;
+                    fields = entry.fields;
+                }
+                flushed.add(entry);
+                if (BufferUtil.hasContent(entry.buffer))
+                    buffers.add(entry.buffer);
                 if (entry.last)
                 {
-                    nestedRequestResponse.closeOutput();
-                    notifyCallbackSuccess(entry.callback);
-                    return Action.SUCCEEDED;
+                    last = true;
+                    break;
                 }
+            }
 
-                notifyCallbackSuccess(entry.callback);
-                return Action.IDLE;
+            // Nothing to write for empty non-last entries, unless the response must be committed.
+            if (buffers.isEmpty() && !last && fields == null)
+            {
+                succeedFlushed();
+                continue;
+            }
+
+            ByteBuffer[] content = buffers.isEmpty() ? NO_BUFFERS : buffers.toArray(NO_BUFFERS);
+            buffers.clear();
+            long bytes = BufferUtil.remaining(content);
+            statistics.onBytesOut(bytes);
+            if (log.isDebugEnabled())
+                log.debug("Flushing {} entries, last={} {}", flushed.size(), last, BufferUtil.toDetailString(content));
+
+            if (event != null)
+            {
+                event.end();
+                if (event.shouldCommit())
+                {
+                    event.uri = nestedRequestResponse.getRequestURI();
+                    event.entries = flushed.size();
+                    event.bytes = bytes;
+                    event.last = last;
+                    event.commit();
+                }
             }
 
-            nestedRequestResponse.write(current.buffer);
+            if (fields != null)
+                nestedRequestResponse.commit(status, fields, last, writeCallback, content);
+            else
+                nestedRequestResponse.write(last, writeCallback, content);
+            return Action.SCHEDULED;
+        }
+    }
+
+    private boolean succeedFlushed()
+    {
+        boolean last = false;
+        for (Entry entry : flushed)
+        {
+            last |= entry.last;
+            notifyCallbackSuccess(entry.callback);
         }
+        flushed.clear();
+        return last;
     }
 
     @Override
@@ -129,16 +230,24 @@ public class ContentFlusher extends IteratingCallback
         if (log.isDebugEnabled())
             log.debug("onCompleteFailure {}", t.toString());
 
-        synchronized (this)
+        failure.compareAndSet(null, t);
+        statistics.onError();
+
+        for (Entry entry : flushed)
         {
-            if (failure == null)
-                failure = t;
+            notifyCallbackFailure(entry.callback, t);
         }
+        flushed.clear();
+        buffers.clear();
+        failQueued(t);
+    }
 
-        if (current != null)
+    private void failQueued(Throwable t)
+    {
+        Entry entry;
+        while ((entry = queue.poll()) != null)
         {
-            notifyCallbackFailure(current.callback, t);
-            current = null;
+            notifyCallbackFailure(entry.callback, t);
         }
     }
 
@@ -176,15 +285,25 @@ public class ContentFlusher extends IteratingCallback
 
     private static class Entry
     {
+        private final int status;
+        private final NestedRequestResponse.Fields fields;
         private final ByteBuffer buffer;
         private final Callback callback;
         private final boolean last;
 
-        public Entry(ByteBuffer buffer, boolean last, Callback callback)
+        public Entry(int status, NestedRequestResponse.Fields fields, ByteBuffer buffer, boolean last, Callback callback)
         {
+            this.status = status;
+            this.fields = fields;
             this.buffer = buffer;
             this.callback = callback;
             this.last = last;
         }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x{commit=%b,last=%b,%s}", getClass().getSimpleName(), hashCode(), fields != null, last, BufferUtil.toDetailString(buffer));
+        }
     }
 }
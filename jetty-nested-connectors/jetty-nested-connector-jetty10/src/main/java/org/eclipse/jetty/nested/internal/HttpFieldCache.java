@@ -0,0 +1,99 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested.internal;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+
+/**
+ * Translates the header fields passed across the boundary as name and value strings to {@link HttpField}s of the
+ * nested server. Known header names are resolved to their {@link HttpHeader}, and the fields of headers with a small
+ * set of common values are interned in a fixed cache so they are reused for every request.
+ */
+public class HttpFieldCache
+{
+    private final Map<HttpHeader, Map<String, HttpField>> _cache = new EnumMap<>(HttpHeader.class);
+
+    public HttpFieldCache()
+    {
+        // Only headers which usually have one of a few values are cached, and only with these values, so values
+        // controlled by the client or application never grow the cache.
+        cache(HttpHeader.ACCEPT, "*/*", "application/json", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        cache(HttpHeader.ACCEPT_CHARSET, "utf-8");
+        cache(HttpHeader.ACCEPT_ENCODING, "gzip", "gzip, deflate", "gzip, deflate, br");
+        cache(HttpHeader.ACCEPT_LANGUAGE, "en-US,en;q=0.9", "en-US,en;q=0.5");
+        cache(HttpHeader.CACHE_CONTROL, "no-cache", "no-store", "max-age=0");
+        cache(HttpHeader.CONNECTION, "keep-alive", "close", "Upgrade");
+        cache(HttpHeader.CONTENT_ENCODING, "gzip", "deflate");
+        cache(HttpHeader.CONTENT_TYPE, "application/json", "application/x-www-form-urlencoded", "application/octet-stream",
+            "text/plain", "text/html", "text/plain;charset=utf-8", "text/html;charset=utf-8", "application/json;charset=utf-8");
+        cache(HttpHeader.PRAGMA, "no-cache");
+        cache(HttpHeader.TRANSFER_ENCODING, "chunked");
+        cache(HttpHeader.UPGRADE, "websocket", "h2c");
+        cache(HttpHeader.VARY, "Accept-Encoding");
+        cache(HttpHeader.X_FORWARDED_PROTO, "http", "https");
+    }
+
+    private void cache(HttpHeader header, String... values)
+    {
+        Map<String, HttpField> fields = new HashMap<>();
+        for (String value : values)
+        {
+            fields.put(value, new HttpField(header, value));
+        }
+        _cache.put(header, fields);
+    }
+
+    /**
+     * @param name the name of the header field.
+     * @param value the value of the header field.
+     * @return a cached field with the name and value, or a new field with its {@link HttpHeader} resolved.
+     */
+    public HttpField getField(String name, String value)
+    {
+        HttpHeader header = HttpHeader.CACHE.get(name);
+        if (header == null)
+            return new HttpField(name, value);
+
+        Map<String, HttpField> fields = _cache.get(header);
+        if (fields == null || value == null)
+            return new HttpField(header, name, value);
+
+        HttpField field = fields.get(value);
+        return field == null ? new HttpField(header, name, value) : field;
+    }
+
+    /**
+     * @return the number of cached fields.
+     */
+    public int getSize()
+    {
+        int size = 0;
+        for (Map<String, HttpField> fields : _cache.values())
+        {
+            size += fields.size();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{headers=%d,size=%d}", getClass().getSimpleName(), hashCode(), _cache.size(), getSize());
+    }
+}
@@ -14,9 +14,13 @@
 package org.eclipse.jetty.nested.internal;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.eclipse.jetty.http.MetaData;
 import org.eclipse.jetty.nested.NestedConnector;
 import org.eclipse.jetty.nested.api.NestedRequestResponse;
+import org.eclipse.jetty.nested.util.LatencyHistogram;
+import org.eclipse.jetty.nested.util.NestedEvents;
 import org.eclipse.jetty.server.HttpChannel;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpInput;
@@ -27,16 +31,68 @@ public class NestedChannel extends HttpChannel implements NestedRequestResponse.
 {
     private static final Logger LOG = LoggerFactory.getLogger(NestedChannel.class);
 
+    private final NestedConnector _connector;
     private final HttpInput _httpInput;
-    private final NestedRequestResponse _nestedRequestResponse;
+    private final NestedTransport _transport;
+    private final NestedChannelPool _channelPool;
+    private final AtomicInteger _releaseCountDown = new AtomicInteger();
+    private NestedRequestResponse _nestedRequestResponse;
     private HttpInput.Content _specialContent;
+    private long _translatedNanoTime;
+    private long _dispatchedNanoTime;
+    private NestedEvents.Request _requestEvent;
+    private long _bytesIn;
 
-    public NestedChannel(NestedConnector connector, HttpConfiguration configuration, NestedEndpoint endPoint, NestedTransport transport)
+    public NestedChannel(NestedConnector connector, HttpConfiguration configuration, NestedEndpoint endPoint, NestedTransport transport, NestedChannelPool channelPool)
     {
         super(connector, configuration, endPoint, transport);
+        _connector = connector;
         _httpInput = getRequest().getHttpInput();
-        _nestedRequestResponse = endPoint.getNestedRequestResponse();
-        _nestedRequestResponse.setReadListener(this);
+        _transport = transport;
+        _channelPool = channelPool;
+    }
+
+    /**
+     * Bind this channel, which is either new or recycled, to the next request.
+     * @param nestedRequestResponse the request to be handled by this channel.
+     */
+    public void setNestedRequestResponse(NestedRequestResponse nestedRequestResponse)
+    {
+        _nestedRequestResponse = nestedRequestResponse;
+        _transport.setNestedRequestResponse(nestedRequestResponse);
+
+        // The channel can be released once it has completed and the handling thread has returned.
+        _releaseCountDown.set(2);
+        if (NestedEvents.Request.isRecording())
+        {
+            _requestEvent = new NestedEvents.Request();
+            _requestEvent.begin();
+        }
+    }
+
+    @Override
+    public void onRequest(MetaData.Request request)
+    {
+        super.onRequest(request);
+
+        // A request without content is at EOF straight away, so nothing is ever read from the outer server.
+        if (!NestedConnection.hasContent(request))
+            _specialContent = new HttpInput.EofContent();
+        // Complete content can be read without waiting, so there is no need to be notified of it.
+        else if (!_nestedRequestResponse.isContentComplete())
+            _nestedRequestResponse.setReadListener(this);
+    }
+
+    /**
+     * Called once the request metadata has been translated and before the request is dispatched.
+     */
+    public void onTranslated()
+    {
+        if (_connector.isRecordLatencies())
+        {
+            _translatedNanoTime = latency(NestedConnector.Phase.TRANSLATION)
+                .recordSince(_nestedRequestResponse.getBeginNanoTime());
+        }
     }
 
     @Override
@@ -45,6 +101,9 @@ public class NestedChannel extends HttpChannel implements NestedRequestResponse.
         if (LOG.isDebugEnabled())
             LOG.debug("needContent()");
 
+        // Either the content or EOF can always be produced immediately from special or complete content.
+        if (_specialContent != null || _nestedRequestResponse.isContentComplete())
+            return true;
         return _nestedRequestResponse.isReadReady();
     }
 
@@ -69,6 +128,10 @@ public class NestedChannel extends HttpChannel implements NestedRequestResponse.
             if (read == null)
                 return null;
 
+            int bytes = read.getByteBuffer().remaining();
+            _bytesIn += bytes;
+            _transport.getStatistics().onBytesIn(bytes);
+
             return new HttpInput.Content(read.getByteBuffer())
             {
                 @Override
@@ -88,6 +151,7 @@ public class NestedChannel extends HttpChannel implements NestedRequestResponse.
         }
         catch (Throwable t)
         {
+            _transport.getStatistics().onError();
             _specialContent = new HttpInput.ErrorContent(t);
             return _specialContent;
         }
@@ -100,6 +164,8 @@ public class NestedChannel extends HttpChannel implements NestedRequestResponse.
             LOG.debug("failAllContent()", failure);
 
         // We don't store content so nothing to fail.
+        if (_specialContent != null)
+            return _specialContent.isEof();
         return _nestedRequestResponse.isReadClosed();
     }
 
@@ -163,6 +229,7 @@ public class NestedChannel extends HttpChannel implements NestedRequestResponse.
         if (LOG.isDebugEnabled())
             LOG.debug("onError()");
 
+        _transport.getStatistics().onError();
         boolean handle = failed(t);
         if (handle)
             execute(this);
@@ -175,6 +242,101 @@ public class NestedChannel extends HttpChannel implements NestedRequestResponse.
             LOG.debug("onCompleted()");
 
         super.onCompleted();
+        recordCompletion();
+        commitRequestEvent();
         _nestedRequestResponse.stopAsync();
+        release();
+    }
+
+    @Override
+    public boolean handle()
+    {
+        // Only the first handling of a request ends its dispatch, later ones are async or read dispatches.
+        if (_translatedNanoTime != 0 && _dispatchedNanoTime == 0)
+            _dispatchedNanoTime = latency(NestedConnector.Phase.DISPATCH).recordSince(_translatedNanoTime);
+
+        boolean complete = super.handle();
+        if (complete)
+            release();
+        return complete;
+    }
+
+    @Override
+    public void recycle()
+    {
+        super.recycle();
+        _specialContent = null;
+        _translatedNanoTime = 0;
+        _dispatchedNanoTime = 0;
+        _requestEvent = null;
+        _bytesIn = 0;
+        _nestedRequestResponse = null;
+        _transport.recycle();
+    }
+
+    private void recordCompletion()
+    {
+        if (_dispatchedNanoTime == 0)
+            return;
+
+        long now = System.nanoTime();
+        long commitNanoTime = _transport.getCommitNanoTime();
+        if (commitNanoTime != 0)
+        {
+            latency(NestedConnector.Phase.FIRST_BYTE).record(commitNanoTime - _dispatchedNanoTime);
+            latency(NestedConnector.Phase.COMPLETION).record(now - commitNanoTime);
+        }
+        latency(NestedConnector.Phase.TOTAL).record(now - _nestedRequestResponse.getBeginNanoTime());
+    }
+
+    private void commitRequestEvent()
+    {
+        NestedEvents.Request event = _requestEvent;
+        if (event == null)
+            return;
+
+        _requestEvent = null;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.uri = getRequest().getRequestURI();
+            event.method = getRequest().getMethod();
+            event.status = getResponse().getStatus();
+            event.bytesIn = _bytesIn;
+            event.bytesOut = getBytesWritten();
+            event.commit();
+        }
+    }
+
+    private LatencyHistogram latency(NestedConnector.Phase phase)
+    {
+        return _connector.getLatencyHistogram(phase);
+    }
+
+    /**
+     * Release this channel when its request failed before it was handled, as it will then never complete.
+     */
+    public void releaseUnhandled()
+    {
+        if (_releaseCountDown.getAndSet(0) == 0)
+            return;
+
+        if (_channelPool != null)
+        {
+            recycle();
+            _channelPool.release(this);
+        }
+    }
+
+    private void release()
+    {
+        if (_releaseCountDown.decrementAndGet() != 0)
+            return;
+
+        if (_channelPool != null)
+        {
+            recycle();
+            _channelPool.release(this);
+        }
     }
 }
\ No newline at end of file
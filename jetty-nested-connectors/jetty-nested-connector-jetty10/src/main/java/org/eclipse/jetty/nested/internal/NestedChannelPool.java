@@ -0,0 +1,104 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A bounded pool of recycled {@link NestedChannel}s, each with its own {@link NestedTransport}.</p>
+ * <p>Channels are bound to the {@link NestedEndpoint} they were created with, so there is one pool per {@link NestedConnection}.</p>
+ */
+public class NestedChannelPool
+{
+    private final Queue<NestedChannel> _channels = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _size = new AtomicInteger();
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final int _capacity;
+
+    public NestedChannelPool(int capacity)
+    {
+        _capacity = capacity;
+    }
+
+    /**
+     * @return a recycled channel, or null if the pool is empty and a new channel must be created.
+     */
+    public NestedChannel acquire()
+    {
+        NestedChannel channel = _channels.poll();
+        if (channel == null)
+        {
+            _misses.increment();
+            return null;
+        }
+
+        _size.decrementAndGet();
+        _hits.increment();
+        return channel;
+    }
+
+    /**
+     * @param channel a recycled channel to be pooled, it is discarded if the pool is full.
+     * @return true if the channel was pooled.
+     */
+    public boolean release(NestedChannel channel)
+    {
+        if (_size.incrementAndGet() > _capacity)
+        {
+            _size.decrementAndGet();
+            return false;
+        }
+
+        _channels.offer(channel);
+        return true;
+    }
+
+    public void clear()
+    {
+        while (_channels.poll() != null)
+        {
+            _size.decrementAndGet();
+        }
+    }
+
+    public int getCapacity()
+    {
+        return _capacity;
+    }
+
+    public int getSize()
+    {
+        return _size.get();
+    }
+
+    public long getHits()
+    {
+        return _hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return _misses.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{size=%d/%d,hits=%d,misses=%d}", getClass().getSimpleName(), hashCode(), getSize(), getCapacity(), getHits(), getMisses());
+    }
+}
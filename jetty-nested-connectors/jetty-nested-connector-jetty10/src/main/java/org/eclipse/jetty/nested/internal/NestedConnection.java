@@ -14,10 +14,13 @@
 package org.eclipse.jetty.nested.internal;
 
 import java.io.IOException;
-import java.util.Enumeration;
 import java.util.EventListener;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpURI;
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.http.MetaData;
@@ -25,7 +28,7 @@ import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.nested.NestedConnector;
 import org.eclipse.jetty.nested.api.NestedRequestResponse;
-import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.nested.util.NestedEvents;
 import org.eclipse.jetty.server.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,34 +37,110 @@ public class NestedConnection implements Connection
 {
     private static final Logger LOG = LoggerFactory.getLogger(NestedConnection.class);
 
+    /**
+     * The methods and versions of the nested server, indexed by the ordinal of the constants passed across the boundary.
+     */
+    private static final String[] METHODS = new String[NestedRequestResponse.Method.values().length];
+    private static final HttpVersion[] VERSIONS = new HttpVersion[NestedRequestResponse.Version.values().length];
+
+    static
+    {
+        for (NestedRequestResponse.Method method : NestedRequestResponse.Method.values())
+        {
+            HttpMethod httpMethod = HttpMethod.fromString(method.asString());
+            METHODS[method.ordinal()] = httpMethod == null ? method.asString() : httpMethod.asString();
+        }
+        for (NestedRequestResponse.Version version : NestedRequestResponse.Version.values())
+        {
+            VERSIONS[version.ordinal()] = HttpVersion.fromString(version.asString());
+        }
+    }
+
+    private static final ThreadLocal<Boolean> __handlingInline = new ThreadLocal<>();
+    private static final HttpFieldCache __httpFieldCache = new HttpFieldCache();
+
     private final NestedConnector _connector;
     private final NestedEndpoint _endpoint;
+    private final NestedChannelPool _channelPool;
+    private final NestedStatistics _statistics;
+    private final List<Listener> _listeners = new CopyOnWriteArrayList<>();
 
     public NestedConnection(NestedConnector connector, NestedEndpoint endpoint)
     {
         _connector = connector;
         _endpoint = endpoint;
+        int capacity = connector.getChannelPoolCapacity();
+        _channelPool = capacity > 0 ? new NestedChannelPool(capacity) : null;
+        _statistics = new NestedStatistics(connector.getStatistics());
+    }
+
+    /**
+     * @return the statistics of this connection, which are also aggregated in the statistics of the connector.
+     */
+    public NestedStatistics getStatistics()
+    {
+        return _statistics;
+    }
+
+    /**
+     * @return the pool of recycled channels for this connection, or null if channels are not pooled.
+     */
+    public NestedChannelPool getChannelPool()
+    {
+        return _channelPool;
     }
 
     @Override
     public void addEventListener(EventListener listener)
     {
+        if (listener instanceof Listener)
+            _listeners.add((Listener)listener);
     }
 
     @Override
     public void removeEventListener(EventListener listener)
     {
+        _listeners.remove(listener);
     }
 
     @Override
     public void onOpen()
     {
+        if (LOG.isDebugEnabled())
+            LOG.debug("onOpen() {}", this);
+
         _endpoint.onOpen();
+        for (Listener listener : _listeners)
+        {
+            try
+            {
+                listener.onOpened(this);
+            }
+            catch (Throwable x)
+            {
+                LOG.info("Failure while notifying listener {}", listener, x);
+            }
+        }
     }
 
     @Override
     public void onClose(Throwable cause)
     {
+        if (LOG.isDebugEnabled())
+            LOG.debug("onClose() {}", this, cause);
+
+        _endpoint.onClose(cause);
+        for (Listener listener : _listeners)
+        {
+            try
+            {
+                listener.onClosed(this);
+            }
+            catch (Throwable x)
+            {
+                LOG.info("Failure while notifying listener {}", listener, x);
+            }
+        }
     }
 
     @Override
@@ -85,25 +164,25 @@ public class NestedConnection implements Connection
     @Override
     public long getMessagesIn()
     {
-        return 0;
+        return _statistics.getRequests();
     }
 
     @Override
     public long getMessagesOut()
     {
-        return 0;
+        return _statistics.getResponses();
     }
 
     @Override
     public long getBytesIn()
     {
-        return 0;
+        return _statistics.getBytesIn();
     }
 
     @Override
     public long getBytesOut()
     {
-        return 0;
+        return _statistics.getBytesOut();
     }
 
     @Override
@@ -112,54 +191,168 @@ public class NestedConnection implements Connection
         return _endpoint.getCreatedTimeStamp();
     }
 
-    public void handle() throws IOException
+    public void handle(NestedRequestResponse nestedRequestResponse) throws IOException
     {
-        NestedRequestResponse nestedRequestResponse = _endpoint.getNestedRequestResponse();
         if (LOG.isDebugEnabled())
             LOG.debug("handling request {}", nestedRequestResponse);
 
+        _statistics.onRequest();
         nestedRequestResponse.startAsync();
+        NestedChannel httpChannel = null;
         try
         {
-            // TODO: We want to recycle the channel instead of creating a new one every time.
             // TODO: Implement the NestedChannel with the top layers HttpChannel.
-            NestedTransport transport = new NestedTransport(_endpoint);
-            HttpChannel httpChannel = new NestedChannel(_connector, _connector.getHttpConfiguration(), _endpoint, transport);
+            httpChannel = (_channelPool == null) ? null : _channelPool.acquire();
+            if (httpChannel == null)
+            {
+                NestedTransport transport = new NestedTransport(_endpoint, _statistics);
+                httpChannel = new NestedChannel(_connector, _connector.getHttpConfiguration(), _endpoint, transport, _channelPool);
+            }
+            httpChannel.setNestedRequestResponse(nestedRequestResponse);
+
+            NestedEvents.HeaderTranslation translationEvent = new NestedEvents.HeaderTranslation();
+            translationEvent.begin();
 
             Request request = httpChannel.getRequest();
             request.setAsyncSupported(true, "jetty-nested");
             request.setSecure(nestedRequestResponse.isSecure());
 
-            // Collect the request Headers.
-            HttpFields.Mutable httpFields = HttpFields.build();
-            Enumeration<String> headerNames = nestedRequestResponse.getHeaderNames();
-            while (headerNames.hasMoreElements())
+            MetaData.Request requestMetadata = newRequestMetaData(nestedRequestResponse);
+            httpChannel.onRequest(requestMetadata);
+            httpChannel.onTranslated();
+
+            translationEvent.end();
+            if (translationEvent.shouldCommit())
             {
-                String headerName = headerNames.nextElement();
-                Enumeration<String> headerValues = nestedRequestResponse.getHeaders(headerName);
-                while (headerValues.hasMoreElements())
-                {
-                    String headerValue = headerValues.nextElement();
-                    httpFields.add(headerName, headerValue);
-                }
+                translationEvent.uri = requestMetadata.getURIString();
+                translationEvent.headerCount = requestMetadata.getFields().size();
+                translationEvent.commit();
             }
-
-            // Generate the Request MetaData.
-            String method = nestedRequestResponse.getMethod();
-            HttpURI httpURI = HttpURI.build(nestedRequestResponse.getRequestURI());
-            HttpVersion httpVersion = HttpVersion.fromString(nestedRequestResponse.getProtocol());
-            long contentLength = nestedRequestResponse.getContentLengthLong();
-            MetaData.Request requestMetadata = new MetaData.Request(method, httpURI, httpVersion, httpFields, contentLength);
-            httpChannel.onRequest(requestMetadata);
             // httpChannel.onContentComplete(); todo: ????
 
-            if (LOG.isDebugEnabled())
-                LOG.debug("executing channel {}", httpChannel);
-            _connector.getExecutor().execute(httpChannel::handle);
+            dispatch(httpChannel, nestedRequestResponse, requestMetadata);
         }
         catch (Throwable t)
         {
+            if (LOG.isDebugEnabled())
+                LOG.debug("failed to handle request {}", nestedRequestResponse, t);
+            _statistics.onError();
             nestedRequestResponse.stopAsync();
+
+            // Return the channel to the pool, as a request that was never dispatched never completes.
+            if (httpChannel != null)
+                httpChannel.releaseUnhandled();
         }
     }
+
+    /**
+     * Translate the request metadata of the outer server to the request metadata of the nested server.
+     * @param nestedRequestResponse the request from the outer server.
+     * @return the request metadata for the nested server.
+     */
+    public static MetaData.Request newRequestMetaData(NestedRequestResponse nestedRequestResponse)
+    {
+        // Collect the request Headers in a single pass, reusing the cached fields of common headers.
+        HttpFields.Mutable httpFields = HttpFields.build(nestedRequestResponse.getHeaderCount());
+        nestedRequestResponse.forEachHeader((name, value) -> httpFields.add(__httpFieldCache.getField(name, value)));
+
+        // Generate the Request MetaData from the request line already parsed by the outer server.
+        NestedRequestResponse.Method nestedMethod = nestedRequestResponse.getHttpMethod();
+        String method = nestedMethod == null ? nestedRequestResponse.getMethod() : METHODS[nestedMethod.ordinal()];
+        HttpURI.Mutable httpURI = HttpURI.build()
+            .scheme(nestedRequestResponse.getScheme())
+            .host(nestedRequestResponse.getHost())
+            .port(nestedRequestResponse.getPort());
+        // Only a URI flagged by the outer server, or with path parameters, is parsed again, so its violations
+        // and parameters are recorded for the nested server.
+        String path = nestedRequestResponse.getPath();
+        if (nestedRequestResponse.hasURIViolations() || path.indexOf(';') >= 0)
+            httpURI.pathQuery(nestedRequestResponse.getRequestURI());
+        else
+            httpURI.path(path).query(nestedRequestResponse.getQuery());
+        NestedRequestResponse.Version nestedVersion = nestedRequestResponse.getHttpVersion();
+        HttpVersion httpVersion = nestedVersion == null ? null : VERSIONS[nestedVersion.ordinal()];
+        if (httpVersion == null)
+            httpVersion = HttpVersion.fromString(nestedRequestResponse.getProtocol());
+        long contentLength = nestedRequestResponse.getContentLengthLong();
+        return new MetaData.Request(method, httpURI, httpVersion, httpFields, contentLength);
+    }
+
+    private void dispatch(NestedChannel httpChannel, NestedRequestResponse nestedRequestResponse, MetaData.Request requestMetadata)
+    {
+        boolean inline;
+        switch (_connector.getDispatchMode())
+        {
+            case INLINE:
+                inline = true;
+                break;
+            case ADAPTIVE:
+                // Complete content cannot block the calling thread either.
+                inline = nestedRequestResponse.isContentComplete() || !hasContent(requestMetadata);
+                break;
+            default:
+                inline = false;
+                break;
+        }
+
+        // Do not recurse if the calling thread is already handling a request inline.
+        if (inline && __handlingInline.get() == null)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("handling channel inline {}", httpChannel);
+
+            __handlingInline.set(Boolean.TRUE);
+            try
+            {
+                httpChannel.handle();
+            }
+            finally
+            {
+                __handlingInline.remove();
+            }
+        }
+        else
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("executing channel {}", httpChannel);
+
+            if (NestedEvents.ExecutorQueue.isRecording())
+            {
+                NestedEvents.ExecutorQueue queueEvent = new NestedEvents.ExecutorQueue();
+                queueEvent.begin();
+                _connector.getExecutor().execute(() ->
+                {
+                    queueEvent.end();
+                    if (queueEvent.shouldCommit())
+                    {
+                        queueEvent.uri = requestMetadata.getURIString();
+                        queueEvent.commit();
+                    }
+                    httpChannel.handle();
+                });
+            }
+            else
+            {
+                _connector.getExecutor().execute(httpChannel::handle);
+            }
+        }
+    }
+
+    /**
+     * @param requestMetadata the metadata of a request.
+     * @return whether the request may have content.
+     */
+    static boolean hasContent(MetaData.Request requestMetadata)
+    {
+        long contentLength = requestMetadata.getContentLength();
+        if (contentLength >= 0)
+            return contentLength > 0;
+
+        // Without a Content-Length an HTTP/1 request only has content if it has a Transfer-Encoding,
+        // but other protocols may have content of unknown length.
+        HttpVersion httpVersion = requestMetadata.getHttpVersion();
+        if (httpVersion == HttpVersion.HTTP_1_0 || httpVersion == HttpVersion.HTTP_1_1)
+            return requestMetadata.getFields().contains(HttpHeader.TRANSFER_ENCODING);
+        return true;
+    }
 }
@@ -14,6 +14,7 @@
 package org.eclipse.jetty.nested.internal;
 
 import java.util.Collections;
+import java.util.EventListener;
 import java.util.List;
 
 import org.eclipse.jetty.io.Connection;
@@ -41,6 +42,13 @@ public class NestedConnectionFactory implements ConnectionFactory
     @Override
     public Connection newConnection(Connector connector, EndPoint endPoint)
     {
-        return new NestedConnection((NestedConnector)connector, (NestedEndpoint)endPoint);
+        NestedConnection connection = new NestedConnection((NestedConnector)connector, (NestedEndpoint)endPoint);
+
+        // Add the Connection.Listeners from the Connector, for example ConnectionStatistics.
+        for (EventListener listener : connector.getBeans(EventListener.class))
+        {
+            connection.addEventListener(listener);
+        }
+        return connection;
     }
 }
@@ -18,6 +18,7 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadPendingException;
 import java.nio.channels.WritePendingException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
@@ -27,35 +28,36 @@ import org.eclipse.jetty.util.Callback;
 public class NestedEndpoint implements EndPoint
 {
     private final long _creationTime = System.currentTimeMillis();
-    private final NestedRequestResponse _nestedRequestResponse;
-    private boolean _closed = false;
-
+    private final InetSocketAddress _localAddress;
+    private final InetSocketAddress _remoteAddress;
+    private volatile Connection _connection;
+    private final AtomicBoolean _closed = new AtomicBoolean();
+
+    /**
+     * @param nestedRequestResponse the first request on the connection, used to resolve the connection addresses.
+     */
     public NestedEndpoint(NestedRequestResponse nestedRequestResponse)
     {
-        _nestedRequestResponse = nestedRequestResponse;
-    }
-
-    public NestedRequestResponse getNestedRequestResponse()
-    {
-        return _nestedRequestResponse;
+        _localAddress = InetSocketAddress.createUnresolved(nestedRequestResponse.getLocalAddr(), nestedRequestResponse.getLocalPort());
+        _remoteAddress = InetSocketAddress.createUnresolved(nestedRequestResponse.getRemoteAddr(), nestedRequestResponse.getRemotePort());
     }
 
     @Override
     public InetSocketAddress getLocalAddress()
     {
-        return InetSocketAddress.createUnresolved(_nestedRequestResponse.getLocalAddr(), _nestedRequestResponse.getLocalPort());
+        return _localAddress;
     }
 
     @Override
     public InetSocketAddress getRemoteAddress()
     {
-        return InetSocketAddress.createUnresolved(_nestedRequestResponse.getRemoteAddr(), _nestedRequestResponse.getRemotePort());
+        return _remoteAddress;
     }
 
     @Override
     public boolean isOpen()
     {
-        return !_closed;
+        return !_closed.get();
     }
 
     @Override
@@ -67,30 +69,37 @@ public class NestedEndpoint implements EndPoint
     @Override
     public void shutdownOutput()
     {
-        _closed = true;
+        close();
     }
 
     @Override
     public boolean isOutputShutdown()
     {
-        return _closed;
+        return _closed.get();
     }
 
     @Override
     public boolean isInputShutdown()
     {
-        return _closed;
+        return _closed.get();
     }
 
     @Override
     public void close()
     {
-        _closed = true;
+        close(null);
     }
 
     @Override
     public void close(Throwable cause)
     {
+        // Whether closed by the outer or the nested server, the connection is notified once so it is removed from the connector.
+        if (_closed.compareAndSet(false, true))
+        {
+            Connection connection = _connection;
+            if (connection != null)
+                connection.onClose(cause);
+        }
     }
 
     @Override
@@ -147,12 +156,13 @@ public class NestedEndpoint implements EndPoint
     @Override
     public Connection getConnection()
     {
-        return null;
+        return _connection;
     }
 
     @Override
     public void setConnection(Connection connection)
     {
+        _connection = connection;
     }
 
     @Override
@@ -0,0 +1,117 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested.internal;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Striped counters of the traffic crossing the boundary between the outer and nested servers.</p>
+ * <p>The statistics of a {@link NestedConnection} have the statistics of the connector as a parent,
+ * which is updated with every update of its children so it holds the aggregate of all connections.</p>
+ */
+public class NestedStatistics
+{
+    private final NestedStatistics _parent;
+    private final LongAdder _requests = new LongAdder();
+    private final LongAdder _responses = new LongAdder();
+    private final LongAdder _errors = new LongAdder();
+    private final LongAdder _bytesIn = new LongAdder();
+    private final LongAdder _bytesOut = new LongAdder();
+
+    public NestedStatistics()
+    {
+        this(null);
+    }
+
+    public NestedStatistics(NestedStatistics parent)
+    {
+        _parent = parent;
+    }
+
+    public void onRequest()
+    {
+        _requests.increment();
+        if (_parent != null)
+            _parent.onRequest();
+    }
+
+    public void onResponse()
+    {
+        _responses.increment();
+        if (_parent != null)
+            _parent.onResponse();
+    }
+
+    public void onError()
+    {
+        _errors.increment();
+        if (_parent != null)
+            _parent.onError();
+    }
+
+    public void onBytesIn(long bytes)
+    {
+        _bytesIn.add(bytes);
+        if (_parent != null)
+            _parent.onBytesIn(bytes);
+    }
+
+    public void onBytesOut(long bytes)
+    {
+        _bytesOut.add(bytes);
+        if (_parent != null)
+            _parent.onBytesOut(bytes);
+    }
+
+    public long getRequests()
+    {
+        return _requests.sum();
+    }
+
+    public long getResponses()
+    {
+        return _responses.sum();
+    }
+
+    public long getErrors()
+    {
+        return _errors.sum();
+    }
+
+    public long getBytesIn()
+    {
+        return _bytesIn.sum();
+    }
+
+    public long getBytesOut()
+    {
+        return _bytesOut.sum();
+    }
+
+    public void reset()
+    {
+        _requests.reset();
+        _responses.reset();
+        _errors.reset();
+        _bytesIn.reset();
+        _bytesOut.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{requests=%d,responses=%d,errors=%d,bytesIn=%d,bytesOut=%d}",
+            getClass().getSimpleName(), hashCode(), getRequests(), getResponses(), getErrors(), getBytesIn(), getBytesOut());
+    }
+}
@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.MetaData;
 import org.eclipse.jetty.nested.api.NestedRequestResponse;
 import org.eclipse.jetty.server.HttpTransport;
@@ -30,11 +31,45 @@ public class NestedTransport implements HttpTransport
     private static final Logger LOG = LoggerFactory.getLogger(NestedTransport.class);
 
     private final NestedEndpoint _endpoint;
+    private final NestedStatistics _statistics;
+    private NestedRequestResponse _nestedRequestResponse;
     private ContentFlusher _flusher;
+    private long _commitNanoTime;
 
-    public NestedTransport(NestedEndpoint endpoint)
+    public NestedTransport(NestedEndpoint endpoint, NestedStatistics statistics)
     {
         _endpoint = endpoint;
+        _statistics = statistics;
+    }
+
+    public NestedStatistics getStatistics()
+    {
+        return _statistics;
+    }
+
+    public NestedRequestResponse getNestedRequestResponse()
+    {
+        return _nestedRequestResponse;
+    }
+
+    public void setNestedRequestResponse(NestedRequestResponse nestedRequestResponse)
+    {
+        _nestedRequestResponse = nestedRequestResponse;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the response was committed, or 0 if it has not been committed.
+     */
+    public long getCommitNanoTime()
+    {
+        return _commitNanoTime;
+    }
+
+    public void recycle()
+    {
+        _commitNanoTime = 0;
+        _nestedRequestResponse = null;
+        _flusher = null;
     }
 
     @Override
@@ -43,19 +78,21 @@ public class NestedTransport implements HttpTransport
         if (LOG.isDebugEnabled())
             LOG.debug("send() {}, {}, last=={}", request, BufferUtil.toDetailString(content), lastContent);
 
-        NestedRequestResponse nestedReqResp = _endpoint.getNestedRequestResponse();
+        NestedRequestResponse nestedReqResp = _nestedRequestResponse;
         if (response != null)
         {
-            nestedReqResp.setStatus(response.getStatus());
-            for (HttpField field : response.getFields())
-            {
-                nestedReqResp.addHeader(field.getName(), field.getValue());
-            }
+            _commitNanoTime = System.nanoTime();
+            _statistics.onResponse();
+            _flusher = new ContentFlusher(nestedReqResp, _statistics);
 
-            _flusher = new ContentFlusher(nestedReqResp);
+            // The fields are copied, as the flusher may commit them from another thread after the response has changed.
+            _flusher.commit(response.getStatus(), new ResponseFields(response.getFields()), content, lastContent, callback);
+        }
+        else
+        {
+            _flusher.write(content, lastContent, callback);
         }
 
-        _flusher.write(content, lastContent, callback);
         if (lastContent)
             _flusher = null;
 
@@ -75,6 +112,46 @@ public class NestedTransport implements HttpTransport
 //        }, content);
     }
 
+    /**
+     * Exposes a copy of the response header fields, taken when the response is committed, to the outer server by index.
+     */
+    private static class ResponseFields implements NestedRequestResponse.Fields
+    {
+        private final String[] _names;
+        private final String[] _values;
+
+        private ResponseFields(HttpFields fields)
+        {
+            int size = fields.size();
+            _names = new String[size];
+            _values = new String[size];
+            for (int i = 0; i < size; i++)
+            {
+                HttpField field = fields.getField(i);
+                _names[i] = field.getName();
+                _values[i] = field.getValue();
+            }
+        }
+
+        @Override
+        public int size()
+        {
+            return _names.length;
+        }
+
+        @Override
+        public String getName(int index)
+        {
+            return _names[index];
+        }
+
+        @Override
+        public String getValue(int index)
+        {
+            return _values[index];
+        }
+    }
+
     @Override
     public boolean isPushSupported()
     {
@@ -90,7 +167,7 @@ public class NestedTransport implements HttpTransport
     @Override
     public void onCompleted()
     {
-        NestedRequestResponse nestedReqResp = _endpoint.getNestedRequestResponse();
+        NestedRequestResponse nestedReqResp = _nestedRequestResponse;
         if (LOG.isDebugEnabled())
             LOG.debug("onCompleted() {}", nestedReqResp);
 
@@ -109,6 +186,7 @@ public class NestedTransport implements HttpTransport
     {
         if (LOG.isDebugEnabled())
             LOG.debug("abort()", failure);
+        _statistics.onError();
         _endpoint.close();
     }
 }
@@ -1,19 +1,89 @@
 package org.eclipse.jetty.nested;
 
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.nested.api.NestedByteBufferPool;
+import org.eclipse.jetty.nested.api.NestedExecutor;
+import org.eclipse.jetty.nested.util.VirtualThreads;
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.shaded.jmx.MBeanContainer;
+import org.eclipse.jetty.shaded.nested.NestedThreadPool;
 import org.eclipse.jetty.shaded.server.Server;
 import org.eclipse.jetty.shaded.nested.NestedConnector;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.eclipse.jetty.util.thread.TryExecutor;
 
+@ManagedObject("Handler of a nested server")
 public class JettyNestedHandler extends Handler.Abstract
 {
+    /**
+     * The threads used to run the nested server.
+     */
+    public enum ThreadPoolMode
+    {
+        /**
+         * The nested server has its own default thread pool.
+         */
+        NESTED,
+
+        /**
+         * The nested server starts a virtual thread for each task, so blocking servlet I/O only parks a virtual
+         * thread. This requires Java 21 and the multi-release jetty-nested-api jar built with the jdk21 profile.
+         */
+        VIRTUAL,
+
+        /**
+         * The nested server uses the thread pool of the outer server, so there is a single set of limits and
+         * reserved threads for all the work of both servers.
+         */
+        SHARED
+    }
+
     private final Server _server;
+    private final ThreadPoolMode _threadPoolMode;
+    private final AdapterConfiguration _adapterConfiguration = new AdapterConfiguration();
+    private NestedThreadPool _nestedThreadPool;
+    private ExecutorService _virtualExecutor;
     private NestedConnector _connector;
+    private boolean _shareByteBufferPool;
+    private boolean _jmxEnabled;
 
     public JettyNestedHandler()
     {
-        _server = new Server();
+        this(ThreadPoolMode.NESTED);
+    }
+
+    public JettyNestedHandler(ThreadPoolMode threadPoolMode)
+    {
+        _threadPoolMode = Objects.requireNonNull(threadPoolMode);
+        switch (threadPoolMode)
+        {
+            case VIRTUAL:
+                if (!VirtualThreads.areSupported())
+                    throw new UnsupportedOperationException("Virtual threads require Java 21");
+                // The executor is created when this handler is started and shut down when it is stopped.
+                _nestedThreadPool = new NestedThreadPool();
+                _server = new Server(_nestedThreadPool);
+                break;
+            case SHARED:
+                // The outer server is only known once this handler is started.
+                _nestedThreadPool = new NestedThreadPool();
+                _server = new Server(_nestedThreadPool);
+                break;
+            default:
+                _server = new Server();
+                break;
+        }
         _connector = new NestedConnector(_server);
         _server.addConnector(_connector);
     }
@@ -23,9 +93,99 @@ public class JettyNestedHandler extends Handler.Abstract
         return _server;
     }
 
+    @ManagedAttribute("The threads used to run the nested server")
+    public ThreadPoolMode getThreadPoolMode()
+    {
+        return _threadPoolMode;
+    }
+
+    public boolean isJmxEnabled()
+    {
+        return _jmxEnabled;
+    }
+
+    /**
+     * @param jmxEnabled whether the beans of the nested server, including the statistics of its connector,
+     * are registered in the platform MBeanServer.
+     */
+    public void setJmxEnabled(boolean jmxEnabled)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _jmxEnabled = jmxEnabled;
+    }
+
+    @ManagedAttribute("The number of requests passed to the nested server")
+    public long getRequests()
+    {
+        return _connector.getRequests();
+    }
+
+    @ManagedAttribute("The number of responses committed by the nested server")
+    public long getResponses()
+    {
+        return _connector.getResponses();
+    }
+
+    @ManagedAttribute("The number of failures reading from or writing to the nested server")
+    public long getErrors()
+    {
+        return _connector.getErrors();
+    }
+
+    @ManagedAttribute("The number of request content bytes read by the nested server")
+    public long getBytesIn()
+    {
+        return _connector.getBytesIn();
+    }
+
+    @ManagedAttribute("The number of response content bytes written by the nested server")
+    public long getBytesOut()
+    {
+        return _connector.getBytesOut();
+    }
+
+    /**
+     * @return the configuration of the adapters between the requests of the outer server and the nested server.
+     */
+    public AdapterConfiguration getAdapterConfiguration()
+    {
+        return _adapterConfiguration;
+    }
+
+    public boolean isShareByteBufferPool()
+    {
+        return _shareByteBufferPool;
+    }
+
+    /**
+     * @param shareByteBufferPool whether the nested server should acquire and release its buffers from the buffer
+     * pool of the outer server, so that a single pool is sized and limited for both servers.
+     */
+    public void setShareByteBufferPool(boolean shareByteBufferPool)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _shareByteBufferPool = shareByteBufferPool;
+    }
+
     @Override
     protected void doStart() throws Exception
     {
+        if (_threadPoolMode == ThreadPoolMode.VIRTUAL)
+        {
+            _virtualExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+            _nestedThreadPool.setExecutor(_virtualExecutor);
+        }
+        else if (_threadPoolMode == ThreadPoolMode.SHARED)
+        {
+            _nestedThreadPool.setExecutor(new SharedExecutor(getServer().getThreadPool()));
+        }
+        if (_shareByteBufferPool)
+            _connector.setNestedByteBufferPool(new SharedByteBufferPool(findByteBufferPool()));
+        if (_jmxEnabled && _server.getBean(MBeanContainer.class) == null)
+            _server.addBean(new MBeanContainer(ManagementFactory.getPlatformMBeanServer()));
+
         // Manage LifeCycle manually as eventually this will be shaded and won't implement the same LifeCycle as the Handler.
         _server.start();
         super.doStart();
@@ -35,14 +195,145 @@ public class JettyNestedHandler extends Handler.Abstract
     protected void doStop() throws Exception
     {
         _server.stop();
+        _connector.setNestedByteBufferPool(null);
+
+        // The NestedThreadPool does not manage its executor, so the virtual threads are shut down here.
+        if (_virtualExecutor != null)
+        {
+            _virtualExecutor.shutdown();
+            _virtualExecutor = null;
+        }
         super.doStop();
     }
 
+    private ByteBufferPool findByteBufferPool()
+    {
+        ByteBufferPool byteBufferPool = getServer().getBean(ByteBufferPool.class);
+        if (byteBufferPool != null)
+            return byteBufferPool;
+
+        for (Connector connector : getServer().getConnectors())
+        {
+            if (connector.getByteBufferPool() != null)
+                return connector.getByteBufferPool();
+        }
+        throw new IllegalStateException("No ByteBufferPool in " + getServer());
+    }
+
+    /**
+     * @return a new adapter between the request and response of the outer server and the nested server.
+     */
+    protected Jetty12ServletRequestResponse newRequestResponse(Request request, Response response)
+    {
+        return new Jetty12ServletRequestResponse(request, response, _adapterConfiguration);
+    }
+
     @Override
     public boolean handle(Request request, Response response) throws Exception
     {
-        Jetty12ServletRequestResponse requestResponse = new Jetty12ServletRequestResponse(request, response);
+        Jetty12ServletRequestResponse requestResponse = newRequestResponse(request, response);
+
+        // Receive small content before passing the request to the nested server, so it never waits to read it.
+        long contentLength = request.getContentLength();
+        if (contentLength > 0 && contentLength <= _adapterConfiguration.getInputAggregationSize())
+        {
+            requestResponse.aggregateContent(Callback.from(() -> service(request, requestResponse), request::failed));
+            return true;
+        }
+
         _connector.service(requestResponse);
         return true;
     }
+
+    private void service(Request request, Jetty12ServletRequestResponse requestResponse)
+    {
+        try
+        {
+            _connector.service(requestResponse);
+        }
+        catch (Throwable x)
+        {
+            request.failed(x);
+        }
+    }
+
+    /**
+     * Exposes the outer {@link ThreadPool} to the nested server across the shading boundary.
+     */
+    private static class SharedExecutor implements NestedExecutor
+    {
+        private final ThreadPool _threadPool;
+
+        private SharedExecutor(ThreadPool threadPool)
+        {
+            _threadPool = Objects.requireNonNull(threadPool);
+        }
+
+        @Override
+        public void execute(Runnable task)
+        {
+            _threadPool.execute(task);
+        }
+
+        @Override
+        public boolean tryExecute(Runnable task)
+        {
+            return _threadPool instanceof TryExecutor && ((TryExecutor)_threadPool).tryExecute(task);
+        }
+
+        @Override
+        public int getThreads()
+        {
+            return _threadPool.getThreads();
+        }
+
+        @Override
+        public int getIdleThreads()
+        {
+            return _threadPool.getIdleThreads();
+        }
+
+        @Override
+        public boolean isLowOnThreads()
+        {
+            return _threadPool.isLowOnThreads();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x{%s}", getClass().getSimpleName(), hashCode(), _threadPool);
+        }
+    }
+
+    /**
+     * Exposes the outer {@link ByteBufferPool} to the nested server across the shading boundary.
+     */
+    private static class SharedByteBufferPool implements NestedByteBufferPool
+    {
+        private final ByteBufferPool _byteBufferPool;
+
+        private SharedByteBufferPool(ByteBufferPool byteBufferPool)
+        {
+            _byteBufferPool = byteBufferPool;
+        }
+
+        @Override
+        public ByteBuffer acquire(int size, boolean direct)
+        {
+            return _byteBufferPool.acquire(size, direct);
+        }
+
+        @Override
+        public void release(ByteBuffer buffer)
+        {
+            _byteBufferPool.release(buffer);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x{%s}", getClass().getSimpleName(), hashCode(), _byteBufferPool);
+        }
+    }
 }
@@ -0,0 +1,212 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.nested.AdapterConfiguration;
+import org.eclipse.jetty.nested.Jetty12ServletRequestResponse;
+import org.eclipse.jetty.nested.JettyNestedHandler;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.shaded.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.IO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests reading request content which is aggregated before the request is passed to the nested server.
+ */
+public class ContentAggregationTest
+{
+    private static final int AGGREGATION_SIZE = 1024;
+
+    private Server _server;
+    private ServerConnector _connector;
+
+    @AfterEach
+    public void after() throws Exception
+    {
+        _server.stop();
+    }
+
+    private void start(Handler handler) throws Exception
+    {
+        _server = new Server();
+        _connector = new ServerConnector(_server);
+        _server.addConnector(_connector);
+        _server.setHandler(handler);
+        _server.start();
+    }
+
+    private RecordingNestedHandler startNested() throws Exception
+    {
+        RecordingNestedHandler nestedHandler = new RecordingNestedHandler();
+        nestedHandler.getAdapterConfiguration().setInputAggregationSize(AGGREGATION_SIZE);
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(ReadServlet.class, "/read");
+        nestedHandler.getNestedServer().setHandler(context);
+        start(nestedHandler);
+        return nestedHandler;
+    }
+
+    /**
+     * Records the adapter of the last request, and whether the nested server set a read listener on it.
+     */
+    private static class RecordingNestedHandler extends JettyNestedHandler
+    {
+        private volatile RecordingRequestResponse _last;
+
+        @Override
+        protected Jetty12ServletRequestResponse newRequestResponse(Request request, Response response)
+        {
+            _last = new RecordingRequestResponse(request, response, getAdapterConfiguration());
+            return _last;
+        }
+    }
+
+    private static class RecordingRequestResponse extends Jetty12ServletRequestResponse
+    {
+        private volatile boolean _readListenerSet;
+
+        private RecordingRequestResponse(Request request, Response response, AdapterConfiguration configuration)
+        {
+            super(request, response, configuration);
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener)
+        {
+            _readListenerSet = true;
+            super.setReadListener(readListener);
+        }
+    }
+
+    /**
+     * Responds with the number of request content bytes read.
+     */
+    public static class ReadServlet extends HttpServlet
+    {
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException
+        {
+            long received = 0;
+            byte[] buffer = new byte[AGGREGATION_SIZE];
+            ServletInputStream inputStream = req.getInputStream();
+            for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer))
+            {
+                received += read;
+            }
+            resp.getWriter().print(received);
+        }
+    }
+
+    /**
+     * Aggregates the content of a request which reports a shorter Content-Length than the content sent,
+     * responding with the message of the aggregation failure.
+     */
+    private static class OverflowHandler extends Handler.Abstract
+    {
+        @Override
+        public boolean handle(Request request, Response response)
+        {
+            Request shorter = new Request.Wrapper(request)
+            {
+                @Override
+                public long getContentLength()
+                {
+                    return 1;
+                }
+            };
+
+            Jetty12ServletRequestResponse requestResponse = new Jetty12ServletRequestResponse(shorter, response);
+            requestResponse.aggregateContent(Callback.from(
+                () -> respond(request, response, "aggregated"),
+                x -> respond(request, response, x.getMessage())));
+            return true;
+        }
+
+        private void respond(Request request, Response response, String message)
+        {
+            response.setStatus(200);
+            response.write(true, Callback.from(request::succeeded, request::failed), BufferUtil.toBuffer(message));
+        }
+    }
+
+    /**
+     * Send request content with a Content-Length.
+     * @return the response content.
+     */
+    private String upload(String path, int size) throws Exception
+    {
+        URL uri = new URL("http://localhost:" + _connector.getLocalPort() + path);
+        HttpURLConnection connection = (HttpURLConnection)uri.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setFixedLengthStreamingMode(size);
+        try (OutputStream outputStream = connection.getOutputStream())
+        {
+            outputStream.write(new byte[size]);
+        }
+
+        assertThat(connection.getResponseCode(), equalTo(200));
+        try (InputStream inputStream = connection.getInputStream())
+        {
+            return IO.toString(inputStream);
+        }
+    }
+
+    @Test
+    public void testAggregatedContent() throws Exception
+    {
+        RecordingNestedHandler nestedHandler = startNested();
+        assertThat(upload("/read", 1), equalTo("1"));
+        assertThat(upload("/read", AGGREGATION_SIZE), equalTo(Integer.toString(AGGREGATION_SIZE)));
+
+        // The content was complete before the nested server read it, so it never waited to be notified of content.
+        assertThat(nestedHandler._last.isContentComplete(), is(true));
+        assertThat(nestedHandler._last._readListenerSet, is(false));
+    }
+
+    @Test
+    public void testContentTooLargeToAggregate() throws Exception
+    {
+        RecordingNestedHandler nestedHandler = startNested();
+        assertThat(upload("/read", 4 * AGGREGATION_SIZE), equalTo(Integer.toString(4 * AGGREGATION_SIZE)));
+        assertThat(nestedHandler._last.isContentComplete(), is(false));
+        assertThat(nestedHandler._last._readListenerSet, is(true));
+    }
+
+    @Test
+    public void testAggregatedContentOverflow() throws Exception
+    {
+        start(new OverflowHandler());
+        assertThat(upload("/overflow", 16), equalTo("Content exceeds Content-Length 1"));
+    }
+}
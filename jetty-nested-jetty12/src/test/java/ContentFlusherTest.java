@@ -0,0 +1,242 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.nested.StubNestedRequestResponse;
+import org.eclipse.jetty.nested.api.NestedRequestResponse;
+import org.eclipse.jetty.nested.api.NestedRequestResponse.NestedCallback;
+import org.eclipse.jetty.shaded.nested.internal.ContentFlusher;
+import org.eclipse.jetty.shaded.nested.internal.NestedStatistics;
+import org.eclipse.jetty.shaded.util.BufferUtil;
+import org.eclipse.jetty.shaded.util.Callback;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ContentFlusherTest
+{
+    private HeldRequestResponse _requestResponse;
+    private ContentFlusher _flusher;
+    private final AtomicInteger _succeeded = new AtomicInteger();
+    private final List<Throwable> _failed = new ArrayList<>();
+    private final Callback _callback = Callback.from(_succeeded::incrementAndGet, _failed::add);
+
+    @BeforeEach
+    public void before()
+    {
+        _requestResponse = new HeldRequestResponse();
+        _flusher = new ContentFlusher(_requestResponse, new NestedStatistics());
+    }
+
+    @Test
+    public void testGatheringWrite()
+    {
+        _flusher.write(BufferUtil.toBuffer("one"), false, _callback);
+        assertThat(_requestResponse.writes.size(), equalTo(1));
+
+        // The first write is held by the outer server, so the following entries are queued.
+        _flusher.write(BufferUtil.toBuffer("two"), false, _callback);
+        _flusher.write(BufferUtil.EMPTY_BUFFER, false, _callback);
+        _flusher.write(BufferUtil.toBuffer("three"), true, _callback);
+        assertThat(_requestResponse.writes.size(), equalTo(1));
+        assertThat(_succeeded.get(), equalTo(0));
+
+        // Completing the first write flushes all the queued entries in one gathering write.
+        _requestResponse.complete(0);
+        assertThat(_succeeded.get(), equalTo(1));
+        assertThat(_requestResponse.writes.size(), equalTo(2));
+        Write write = _requestResponse.writes.get(1);
+        assertThat(write.last, is(true));
+        assertThat(write.content.length, equalTo(2));
+        assertThat(write.toString(), equalTo("twothree"));
+
+        _requestResponse.complete(1);
+        assertThat(_succeeded.get(), equalTo(4));
+        assertThat(_failed.size(), equalTo(0));
+    }
+
+    @Test
+    public void testEmptyWritesAreNotFlushed()
+    {
+        _flusher.write(BufferUtil.EMPTY_BUFFER, false, _callback);
+        _flusher.write(BufferUtil.EMPTY_BUFFER, false, _callback);
+        assertThat(_requestResponse.writes.size(), equalTo(0));
+        assertThat(_succeeded.get(), equalTo(2));
+
+        _flusher.write(null, true, _callback);
+        assertThat(_requestResponse.writes.size(), equalTo(1));
+        assertThat(_requestResponse.writes.get(0).last, is(true));
+        assertThat(_requestResponse.writes.get(0).content.length, equalTo(0));
+    }
+
+    @Test
+    public void testFailedWrite()
+    {
+        _flusher.write(BufferUtil.toBuffer("one"), false, _callback);
+        _flusher.write(BufferUtil.toBuffer("two"), false, _callback);
+
+        // Both the flushed and the queued entries are failed.
+        _requestResponse.fail(0, new IOException("test"));
+        assertThat(_succeeded.get(), equalTo(0));
+        assertThat(_failed.size(), equalTo(2));
+
+        // Later writes fail without reaching the outer server.
+        _flusher.write(BufferUtil.toBuffer("three"), true, _callback);
+        assertThat(_failed.size(), equalTo(3));
+        assertThat(_requestResponse.writes.size(), equalTo(1));
+    }
+
+    @Test
+    public void testEmptyCommit()
+    {
+        // Committing the response, as flushBuffer() does, writes the head even without content.
+        _flusher.commit(201, new TestFields("X-Test", "value"), BufferUtil.EMPTY_BUFFER, false, _callback);
+        assertThat(_requestResponse.writes.size(), equalTo(1));
+        Write write = _requestResponse.writes.get(0);
+        assertThat(write.status, equalTo(201));
+        assertThat(write.fields.getName(0), equalTo("X-Test"));
+        assertThat(write.fields.getValue(0), equalTo("value"));
+        assertThat(write.last, is(false));
+        assertThat(write.content.length, equalTo(0));
+
+        // Later writes do not commit again.
+        _requestResponse.complete(0);
+        _flusher.write(BufferUtil.toBuffer("one"), true, _callback);
+        assertThat(_requestResponse.writes.size(), equalTo(2));
+        assertThat(_requestResponse.writes.get(1).fields, nullValue());
+        assertThat(_requestResponse.writes.get(1).toString(), equalTo("one"));
+    }
+
+    @Test
+    public void testCommitGatheredWithWrites()
+    {
+        _requestResponse.writeReady = false;
+        _flusher.commit(200, new TestFields("X-Test", "value"), BufferUtil.toBuffer("one"), false, _callback);
+        _flusher.write(BufferUtil.toBuffer("two"), true, _callback);
+        assertThat(_requestResponse.writes.size(), equalTo(0));
+
+        // The commit is the first entry of the gathering write.
+        _requestResponse.writeReady = true;
+        _flusher.iterate();
+        assertThat(_requestResponse.writes.size(), equalTo(1));
+        Write write = _requestResponse.writes.get(0);
+        assertThat(write.status, equalTo(200));
+        assertThat(write.last, is(true));
+        assertThat(write.toString(), equalTo("onetwo"));
+    }
+
+    private static class TestFields implements NestedRequestResponse.Fields
+    {
+        private final String name;
+        private final String value;
+
+        private TestFields(String name, String value)
+        {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public int size()
+        {
+            return 1;
+        }
+
+        @Override
+        public String getName(int index)
+        {
+            return name;
+        }
+
+        @Override
+        public String getValue(int index)
+        {
+            return value;
+        }
+    }
+
+    private static class Write
+    {
+        private final int status;
+        private final NestedRequestResponse.Fields fields;
+        private final boolean last;
+        private final NestedCallback callback;
+        private final ByteBuffer[] content;
+
+        private Write(int status, NestedRequestResponse.Fields fields, boolean last, NestedCallback callback, ByteBuffer[] content)
+        {
+            this.status = status;
+            this.fields = fields;
+            this.last = last;
+            this.callback = callback;
+            this.content = content;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder builder = new StringBuilder();
+            for (ByteBuffer buffer : content)
+            {
+                builder.append(BufferUtil.toString(buffer));
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * An outer server which holds every write until it is completed by the test.
+     */
+    private static class HeldRequestResponse extends StubNestedRequestResponse
+    {
+        private final List<Write> writes = new ArrayList<>();
+        private boolean writeReady = true;
+
+        @Override
+        public boolean isWriteReady()
+        {
+            return writeReady;
+        }
+
+        @Override
+        public void commit(int status, Fields fields, boolean last, NestedCallback callback, ByteBuffer... content)
+        {
+            writes.add(new Write(status, fields, last, callback, content));
+        }
+
+        @Override
+        public void write(boolean last, NestedCallback callback, ByteBuffer... content)
+        {
+            writes.add(new Write(0, null, last, callback, content));
+        }
+
+        private void complete(int index)
+        {
+            writes.get(index).callback.succeeded();
+        }
+
+        private void fail(int index, Throwable failure)
+        {
+            writes.get(index).callback.failed(failure);
+        }
+    }
+}
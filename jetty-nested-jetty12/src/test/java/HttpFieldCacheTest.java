@@ -0,0 +1,102 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+import org.eclipse.jetty.shaded.http.HttpField;
+import org.eclipse.jetty.shaded.http.HttpHeader;
+import org.eclipse.jetty.shaded.nested.internal.HttpFieldCache;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Tests the caches of header fields for the requests of the nested server and the responses of the outer server.
+ */
+public class HttpFieldCacheTest
+{
+    @Test
+    public void testRequestFieldHit()
+    {
+        HttpFieldCache cache = new HttpFieldCache();
+        HttpField field = cache.getField("Accept-Encoding", "gzip");
+        assertThat(field.getHeader(), equalTo(HttpHeader.ACCEPT_ENCODING));
+        assertThat(field.getValue(), equalTo("gzip"));
+        assertThat(cache.getField("Accept-Encoding", "gzip"), sameInstance(field));
+    }
+
+    @Test
+    public void testRequestFieldMiss()
+    {
+        HttpFieldCache cache = new HttpFieldCache();
+        HttpField field = cache.getField("Accept-Encoding", "identity");
+        assertThat(field.getHeader(), equalTo(HttpHeader.ACCEPT_ENCODING));
+        assertThat(field.getValue(), equalTo("identity"));
+        assertThat(cache.getField("Accept-Encoding", "identity"), not(sameInstance(field)));
+
+        HttpField unknown = cache.getField("X-Custom", "value");
+        assertThat(unknown.getHeader(), nullValue());
+        assertThat(unknown.getName(), equalTo("X-Custom"));
+        assertThat(unknown.getValue(), equalTo("value"));
+    }
+
+    @Test
+    public void testRequestCacheNotGrown()
+    {
+        HttpFieldCache cache = new HttpFieldCache();
+        int size = cache.getSize();
+
+        // Values controlled by the client are never added to the cache.
+        for (int i = 0; i < 1000; i++)
+        {
+            cache.getField("Content-Type", "text/plain;boundary=" + i);
+            cache.getField("Cache-Control", "max-age=" + i);
+        }
+        assertThat(cache.getSize(), equalTo(size));
+    }
+
+    @Test
+    public void testResponseFieldHit()
+    {
+        org.eclipse.jetty.nested.HttpFieldCache cache = new org.eclipse.jetty.nested.HttpFieldCache();
+        org.eclipse.jetty.http.HttpField field = cache.getField("Content-Type", "application/json");
+        assertThat(field.getHeader(), equalTo(org.eclipse.jetty.http.HttpHeader.CONTENT_TYPE));
+        assertThat(field.getValue(), equalTo("application/json"));
+        assertThat(cache.getField("Content-Type", "application/json"), sameInstance(field));
+    }
+
+    @Test
+    public void testResponseFieldMiss()
+    {
+        org.eclipse.jetty.nested.HttpFieldCache cache = new org.eclipse.jetty.nested.HttpFieldCache();
+        org.eclipse.jetty.http.HttpField field = cache.getField("Content-Type", "image/png");
+        assertThat(field.getHeader(), equalTo(org.eclipse.jetty.http.HttpHeader.CONTENT_TYPE));
+        assertThat(field.getValue(), equalTo("image/png"));
+        assertThat(cache.getField("Content-Type", "image/png"), not(sameInstance(field)));
+        assertThat(cache.getField("X-Custom", "value").getHeader(), nullValue());
+    }
+
+    @Test
+    public void testResponseCacheNotGrown()
+    {
+        org.eclipse.jetty.nested.HttpFieldCache cache = new org.eclipse.jetty.nested.HttpFieldCache();
+        int size = cache.getSize();
+        for (int i = 0; i < 1000; i++)
+        {
+            cache.getField("Cache-Control", "max-age=" + i);
+        }
+        assertThat(cache.getSize(), equalTo(size));
+    }
+}
@@ -0,0 +1,378 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.nested.AdapterConfiguration;
+import org.eclipse.jetty.nested.HttpInput;
+import org.eclipse.jetty.nested.JettyNestedHandler;
+import org.eclipse.jetty.server.Content;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.shaded.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.IO;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * Tests reading request content through the Jetty 12 {@link org.eclipse.jetty.nested.HttpInput} adapter,
+ * with both blocking and asynchronous servlet reads.
+ */
+public class HttpInputTest
+{
+    private static final int CHUNK_SIZE = 4096;
+
+    private static Server _server;
+    private static ServerConnector _connector;
+    private static JettyNestedHandler _nestedHandler;
+
+    @BeforeAll
+    public static void before() throws Exception
+    {
+        _server = new Server();
+        _connector = new ServerConnector(_server);
+        _server.addConnector(_connector);
+        _nestedHandler = new JettyNestedHandler();
+        _server.setHandler(_nestedHandler);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(BlockingReadServlet.class, "/blocking");
+        context.addServlet(AsyncReadServlet.class, "/async");
+        context.addServlet(UnreadServlet.class, "/unread");
+        _nestedHandler.getNestedServer().setHandler(context);
+        _server.start();
+    }
+
+    @AfterAll
+    public static void after() throws Exception
+    {
+        _server.stop();
+    }
+
+    /**
+     * Responds with the number of request content bytes read with blocking reads.
+     */
+    public static class BlockingReadServlet extends HttpServlet
+    {
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException
+        {
+            long received = 0;
+            byte[] buffer = new byte[CHUNK_SIZE];
+            ServletInputStream inputStream = req.getInputStream();
+            for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer))
+            {
+                received += read;
+            }
+            resp.getWriter().print(received);
+        }
+    }
+
+    /**
+     * Responds with the number of request content bytes read with a {@link ReadListener}.
+     */
+    public static class AsyncReadServlet extends HttpServlet
+    {
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException
+        {
+            AsyncContext asyncContext = req.startAsync();
+            ServletInputStream inputStream = req.getInputStream();
+            inputStream.setReadListener(new ReadListener()
+            {
+                private final byte[] buffer = new byte[CHUNK_SIZE];
+                private long received;
+
+                @Override
+                public void onDataAvailable() throws IOException
+                {
+                    while (inputStream.isReady() && !inputStream.isFinished())
+                    {
+                        int read = inputStream.read(buffer);
+                        if (read > 0)
+                            received += read;
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() throws IOException
+                {
+                    resp.getWriter().print(received);
+                    asyncContext.complete();
+                }
+
+                @Override
+                public void onError(Throwable t)
+                {
+                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    asyncContext.complete();
+                }
+            });
+        }
+    }
+
+    /**
+     * Responds without reading any of the request content.
+     */
+    public static class UnreadServlet extends HttpServlet
+    {
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException
+        {
+            resp.getWriter().print("unread");
+        }
+    }
+
+    /**
+     * Reads ahead of the reader with an {@link HttpInput} over a request which counts the content chunks read
+     * from the outer server and released, then closes the input without reading the content.
+     */
+    private static class CountingHandler extends Handler.Abstract
+    {
+        private final AtomicInteger _read = new AtomicInteger();
+        private final AtomicInteger _released = new AtomicInteger();
+
+        @Override
+        public boolean handle(Request request, Response response) throws Exception
+        {
+            Request counting = new Request.Wrapper(request)
+            {
+                @Override
+                public Content readContent()
+                {
+                    Content content = super.readContent();
+                    if (content == null || content instanceof Content.Error)
+                        return content;
+                    _read.incrementAndGet();
+                    return new CountingContent(content, _released);
+                }
+            };
+
+            AdapterConfiguration configuration = new AdapterConfiguration();
+            configuration.setInputReadAheadChunks(4);
+            HttpInput input = new HttpInput(counting, configuration);
+
+            // Demand content and wait for some to be read ahead, then close the input without reading it.
+            input.isReady();
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (_read.get() < 2 && System.nanoTime() < end)
+            {
+                Thread.sleep(10);
+            }
+            input.close();
+
+            response.setStatus(200);
+            response.write(true, Callback.from(request::succeeded, request::failed), BufferUtil.toBuffer("closed"));
+            return true;
+        }
+    }
+
+    private static class CountingContent implements Content
+    {
+        private final Content _content;
+        private final AtomicInteger _released;
+
+        private CountingContent(Content content, AtomicInteger released)
+        {
+            _content = content;
+            _released = released;
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer()
+        {
+            return _content.getByteBuffer();
+        }
+
+        @Override
+        public boolean isLast()
+        {
+            return _content.isLast();
+        }
+
+        @Override
+        public void release()
+        {
+            _released.incrementAndGet();
+            _content.release();
+        }
+    }
+
+    /**
+     * Send chunked request content, pausing between chunks so the reader waits for content to arrive.
+     * @return the response content.
+     */
+    private String upload(String path, int chunks, long pauseMillis) throws Exception
+    {
+        URL uri = new URL("http://localhost:" + _connector.getLocalPort() + path);
+        HttpURLConnection connection = (HttpURLConnection)uri.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setChunkedStreamingMode(CHUNK_SIZE);
+        try (OutputStream outputStream = connection.getOutputStream())
+        {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            for (int i = 0; i < chunks; i++)
+            {
+                outputStream.write(chunk);
+                outputStream.flush();
+                if (pauseMillis > 0)
+                    Thread.sleep(pauseMillis);
+            }
+        }
+
+        assertThat(connection.getResponseCode(), equalTo(200));
+        try (InputStream inputStream = connection.getInputStream())
+        {
+            return IO.toString(inputStream);
+        }
+    }
+
+    @Test
+    public void testBlockingRead() throws Exception
+    {
+        assertThat(upload("/blocking", 256, 0), equalTo(Integer.toString(256 * CHUNK_SIZE)));
+    }
+
+    @Test
+    public void testBlockingReadWaitsForContent() throws Exception
+    {
+        assertThat(upload("/blocking", 8, 50), equalTo(Integer.toString(8 * CHUNK_SIZE)));
+    }
+
+    @Test
+    public void testAsyncRead() throws Exception
+    {
+        assertThat(upload("/async", 256, 0), equalTo(Integer.toString(256 * CHUNK_SIZE)));
+    }
+
+    @Test
+    public void testAsyncReadWaitsForContent() throws Exception
+    {
+        // Each pause makes the input not ready, so onDataAvailable() is called again for every chunk.
+        assertThat(upload("/async", 8, 50), equalTo(Integer.toString(8 * CHUNK_SIZE)));
+    }
+
+    @Test
+    public void testEmptyContent() throws Exception
+    {
+        assertThat(upload("/async", 0, 0), equalTo("0"));
+        assertThat(upload("/blocking", 0, 0), equalTo("0"));
+    }
+
+    @Test
+    public void testBlockingReadAhead() throws Exception
+    {
+        _nestedHandler.getAdapterConfiguration().setInputReadAheadChunks(4);
+        try
+        {
+            assertThat(upload("/blocking", 256, 0), equalTo(Integer.toString(256 * CHUNK_SIZE)));
+            assertThat(upload("/blocking", 8, 50), equalTo(Integer.toString(8 * CHUNK_SIZE)));
+        }
+        finally
+        {
+            _nestedHandler.getAdapterConfiguration().setInputReadAheadChunks(0);
+        }
+    }
+
+    @Test
+    public void testAsyncReadAhead() throws Exception
+    {
+        _nestedHandler.getAdapterConfiguration().setInputReadAheadChunks(4);
+        try
+        {
+            assertThat(upload("/async", 256, 0), equalTo(Integer.toString(256 * CHUNK_SIZE)));
+            assertThat(upload("/async", 8, 50), equalTo(Integer.toString(8 * CHUNK_SIZE)));
+        }
+        finally
+        {
+            _nestedHandler.getAdapterConfiguration().setInputReadAheadChunks(0);
+        }
+    }
+
+    @Test
+    public void testReadAheadReleasedOnClose() throws Exception
+    {
+        Server server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        server.addConnector(connector);
+        CountingHandler handler = new CountingHandler();
+        server.setHandler(handler);
+        server.start();
+        try (Socket socket = new Socket("localhost", connector.getLocalPort()))
+        {
+            // Send the content in several chunks, so several chunks can be read ahead.
+            StringBuilder request = new StringBuilder("POST / HTTP/1.1\r\nHost: localhost\r\n" +
+                "Transfer-Encoding: chunked\r\nConnection: close\r\n\r\n");
+            for (int i = 0; i < 8; i++)
+            {
+                request.append(Integer.toHexString(CHUNK_SIZE)).append("\r\n").append("x".repeat(CHUNK_SIZE)).append("\r\n");
+            }
+            request.append("0\r\n\r\n");
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+            outputStream.flush();
+            IO.toString(socket.getInputStream());
+        }
+        finally
+        {
+            server.stop();
+        }
+
+        // Every chunk read from the outer server has been released, including any received after the close.
+        assertThat(handler._read.get(), greaterThan(0));
+        assertThat(handler._released.get(), equalTo(handler._read.get()));
+    }
+
+    @Test
+    public void testUnreadContentWithReadAhead() throws Exception
+    {
+        // The content read ahead is released when the response completes without reading it.
+        _nestedHandler.getAdapterConfiguration().setInputReadAheadChunks(4);
+        try
+        {
+            assertThat(upload("/unread", 64, 0), equalTo("unread"));
+            assertThat(upload("/unread", 8, 50), equalTo("unread"));
+            assertThat(upload("/blocking", 8, 0), equalTo(Integer.toString(8 * CHUNK_SIZE)));
+        }
+        finally
+        {
+            _nestedHandler.getAdapterConfiguration().setInputReadAheadChunks(0);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.nested.HttpOutput;
+import org.eclipse.jetty.nested.JettyNestedHandler;
+import org.eclipse.jetty.nested.api.NestedRequestResponse;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.shaded.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests writing response content through the Jetty 12 {@link org.eclipse.jetty.nested.HttpOutput} adapter,
+ * with both blocking and asynchronous servlet writes.
+ */
+public class HttpOutputTest
+{
+    private static final int CHUNK_SIZE = 8192;
+    private static final int CONTENT_SIZE = 4 * 1024 * 1024;
+    private static final int SMALL_WRITES = 10_000;
+    private static final int LARGE_CONTENT_SIZE = 32 * 1024 * 1024;
+
+    private static Server _server;
+    private static ServerConnector _connector;
+
+    @BeforeAll
+    public static void before() throws Exception
+    {
+        _server = new Server();
+        _connector = new ServerConnector(_server);
+        _server.addConnector(_connector);
+        JettyNestedHandler nestedHandler = new JettyNestedHandler();
+        _server.setHandler(nestedHandler);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(BlockingWriteServlet.class, "/blocking");
+        context.addServlet(AsyncWriteServlet.class, "/async");
+        context.addServlet(SmallAsyncWriteServlet.class, "/small");
+        nestedHandler.getNestedServer().setHandler(context);
+        _server.start();
+    }
+
+    @AfterAll
+    public static void after() throws Exception
+    {
+        _server.stop();
+    }
+
+    /**
+     * Writes {@link #CONTENT_SIZE} bytes with blocking writes.
+     */
+    public static class BlockingWriteServlet extends HttpServlet
+    {
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException
+        {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            ServletOutputStream outputStream = resp.getOutputStream();
+            for (int written = 0; written < CONTENT_SIZE; written += chunk.length)
+            {
+                outputStream.write(chunk);
+            }
+        }
+    }
+
+    /**
+     * Writes {@link #CONTENT_SIZE} bytes with a {@link WriteListener}, writing while the output is ready.
+     */
+    public static class AsyncWriteServlet extends HttpServlet
+    {
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException
+        {
+            AsyncContext asyncContext = req.startAsync();
+            ServletOutputStream outputStream = resp.getOutputStream();
+            outputStream.setWriteListener(new WriteListener()
+            {
+                private final byte[] chunk = new byte[CHUNK_SIZE];
+                private int written;
+
+                @Override
+                public void onWritePossible() throws IOException
+                {
+                    while (outputStream.isReady())
+                    {
+                        if (written >= CONTENT_SIZE)
+                        {
+                            asyncContext.complete();
+                            return;
+                        }
+                        outputStream.write(chunk);
+                        written += chunk.length;
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t)
+                {
+                    asyncContext.complete();
+                }
+            });
+        }
+    }
+
+    /**
+     * Flushes {@link #SMALL_WRITES} single byte writes with a {@link WriteListener}. Most complete synchronously,
+     * which must not call {@link WriteListener#onWritePossible()} recursively.
+     */
+    public static class SmallAsyncWriteServlet extends HttpServlet
+    {
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException
+        {
+            AsyncContext asyncContext = req.startAsync();
+            ServletOutputStream outputStream = resp.getOutputStream();
+            outputStream.setWriteListener(new WriteListener()
+            {
+                private int written;
+
+                @Override
+                public void onWritePossible() throws IOException
+                {
+                    while (outputStream.isReady())
+                    {
+                        if (written == SMALL_WRITES)
+                        {
+                            asyncContext.complete();
+                            return;
+                        }
+                        outputStream.write('x');
+                        outputStream.flush();
+                        written++;
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t)
+                {
+                    asyncContext.complete();
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes content directly through an {@link HttpOutput}, first content too large to be written before the client
+     * reads it, then the last content once {@link NestedRequestResponse.WriteListener#onWritePossible()} is called again.
+     */
+    private static class NotReadyHandler extends Handler.Abstract
+    {
+        private final CountDownLatch _notReady = new CountDownLatch(1);
+        private final AtomicInteger _writesPossible = new AtomicInteger();
+
+        @Override
+        public boolean handle(Request request, Response response)
+        {
+            HttpOutput output = new HttpOutput(response);
+            output.setWriteListener(new NestedRequestResponse.WriteListener()
+            {
+                @Override
+                public void onWritePossible()
+                {
+                    if (_writesPossible.incrementAndGet() == 1)
+                    {
+                        output.write(false, new NestedRequestResponse.NestedCallback()
+                        {
+                        }, ByteBuffer.allocate(LARGE_CONTENT_SIZE));
+                        if (!output.isReady())
+                            _notReady.countDown();
+                        return;
+                    }
+
+                    output.write(true, new NestedRequestResponse.NestedCallback()
+                    {
+                        @Override
+                        public void succeeded()
+                        {
+                            request.succeeded();
+                        }
+
+                        @Override
+                        public void failed(Throwable x)
+                        {
+                            request.failed(x);
+                        }
+                    });
+                }
+
+                @Override
+                public void onError(Throwable t)
+                {
+                    request.failed(t);
+                }
+            });
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of response content bytes received.
+     */
+    private long download(String path) throws Exception
+    {
+        URL uri = new URL("http://localhost:" + _connector.getLocalPort() + path);
+        HttpURLConnection connection = (HttpURLConnection)uri.openConnection();
+        assertThat(connection.getResponseCode(), equalTo(200));
+
+        long received = 0;
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try (InputStream inputStream = connection.getInputStream())
+        {
+            for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer))
+            {
+                received += read;
+            }
+        }
+        return received;
+    }
+
+    @Test
+    public void testBlockingWrite() throws Exception
+    {
+        assertThat(download("/blocking"), equalTo((long)CONTENT_SIZE));
+    }
+
+    @Test
+    public void testAsyncWrite() throws Exception
+    {
+        assertThat(download("/async"), equalTo((long)CONTENT_SIZE));
+    }
+
+    @Test
+    public void testSmallAsyncWrites() throws Exception
+    {
+        assertThat(download("/small"), equalTo((long)SMALL_WRITES));
+    }
+
+    @Test
+    public void testNotReadyUntilWriteCompletes() throws Exception
+    {
+        Server server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        server.addConnector(connector);
+        NotReadyHandler handler = new NotReadyHandler();
+        server.setHandler(handler);
+        server.start();
+        try (Socket socket = new Socket("localhost", connector.getLocalPort()))
+        {
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            outputStream.flush();
+
+            // The output is not ready while the client has not read the content.
+            assertThat(handler._notReady.await(5, TimeUnit.SECONDS), is(true));
+            assertThat(handler._writesPossible.get(), equalTo(1));
+
+            // Reading the content completes the write, which calls onWritePossible() again to write the last content.
+            long received = 0;
+            byte[] buffer = new byte[CHUNK_SIZE];
+            InputStream inputStream = socket.getInputStream();
+            for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer))
+            {
+                received += read;
+            }
+            assertThat(received, greaterThan((long)LARGE_CONTENT_SIZE));
+            assertThat(handler._writesPossible.get(), equalTo(2));
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+}
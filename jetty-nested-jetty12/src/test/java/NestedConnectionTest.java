@@ -0,0 +1,282 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.nested.StubNestedRequestResponse;
+import org.eclipse.jetty.shaded.nested.NestedConnector;
+import org.eclipse.jetty.shaded.server.Handler;
+import org.eclipse.jetty.shaded.server.Request;
+import org.eclipse.jetty.shaded.server.Server;
+import org.eclipse.jetty.shaded.server.handler.AbstractHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the {@link NestedConnector} with requests from a {@link StubNestedRequestResponse} instead of an outer server.
+ */
+public class NestedConnectionTest
+{
+    private Server _server;
+    private NestedConnector _connector;
+
+    @BeforeEach
+    public void before()
+    {
+        _server = new Server();
+        _connector = new NestedConnector(_server);
+        _connector.setDispatchMode(NestedConnector.DispatchMode.INLINE);
+        _server.addConnector(_connector);
+    }
+
+    @AfterEach
+    public void after() throws Exception
+    {
+        _server.stop();
+    }
+
+    private void start(Handler handler) throws Exception
+    {
+        _server.setHandler(handler);
+        _server.start();
+    }
+
+    @Test
+    public void testConnectionReused() throws Exception
+    {
+        start(new OkHandler());
+        _connector.service(new StubNestedRequestResponse().connectionId("1"));
+        _connector.service(new StubNestedRequestResponse().connectionId("1"));
+        assertThat(_connector.getConnectionCount(), equalTo(1));
+
+        _connector.service(new StubNestedRequestResponse().connectionId("2"));
+        assertThat(_connector.getConnectionCount(), equalTo(2));
+    }
+
+    @Test
+    public void testConnectionClosedByOuterServer() throws Exception
+    {
+        start(new OkHandler());
+        StubNestedRequestResponse requestResponse = new StubNestedRequestResponse().connectionId("1");
+        _connector.service(requestResponse);
+        assertThat(_connector.getConnectionCount(), equalTo(1));
+
+        requestResponse.closeConnection();
+        assertThat(_connector.getConnectionCount(), equalTo(0));
+    }
+
+    @Test
+    public void testConnectionClosedByNestedServer() throws Exception
+    {
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            {
+                baseRequest.setHandled(true);
+                baseRequest.getHttpChannel().getEndPoint().close();
+            }
+        });
+        _connector.service(new StubNestedRequestResponse().connectionId("1"));
+        assertThat(_connector.getConnectionCount(), equalTo(0));
+    }
+
+    @Test
+    public void testReplacedConnectionsShareCloseListener() throws Exception
+    {
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            {
+                baseRequest.setHandled(true);
+                if ("/close".equals(target))
+                    baseRequest.getHttpChannel().getEndPoint().close();
+            }
+        });
+
+        // Every request on the outer connection is handled by a new nested connection, as each closes its own.
+        StubNestedRequestResponse requestResponse = new StubNestedRequestResponse().connectionId("1").requestURI("/close");
+        for (int i = 0; i < 3; i++)
+        {
+            _connector.service(requestResponse);
+        }
+        assertThat(_connector.getConnectionCount(), equalTo(0));
+
+        requestResponse.requestURI("/");
+        _connector.service(requestResponse);
+        assertThat(_connector.getConnectionCount(), equalTo(1));
+        assertThat(requestResponse.getConnectionCloseListenerCount(), equalTo(1));
+
+        // The one listener closes the current nested connection.
+        requestResponse.closeConnection();
+        assertThat(_connector.getConnectionCount(), equalTo(0));
+    }
+
+    @Test
+    public void testConnectionsRemovedOnStop() throws Exception
+    {
+        start(new OkHandler());
+        _connector.service(new StubNestedRequestResponse().connectionId("1"));
+        _connector.service(new StubNestedRequestResponse().connectionId("2"));
+        assertThat(_connector.getConnectionCount(), equalTo(2));
+
+        _server.stop();
+        assertThat(_connector.getConnectionCount(), equalTo(0));
+    }
+
+    @Test
+    public void testConnectionCloseListenerFailure() throws Exception
+    {
+        start(new OkHandler());
+        StubNestedRequestResponse requestResponse = new StubNestedRequestResponse()
+        {
+            @Override
+            public void addConnectionCloseListener(Runnable listener)
+            {
+                throw new IllegalStateException("connection closed");
+            }
+        }.connectionId("1");
+
+        assertThrows(IllegalStateException.class, () -> _connector.service(requestResponse));
+        assertThat(_connector.getConnectionCount(), equalTo(0));
+    }
+
+    @Test
+    public void testChannelReleasedAfterFailedTranslation() throws Exception
+    {
+        start(new OkHandler());
+        StubNestedRequestResponse failing = new StubNestedRequestResponse()
+        {
+            @Override
+            public void forEachHeader(BiConsumer<String, String> action)
+            {
+                throw new IllegalStateException("bad headers");
+            }
+        }.connectionId("1");
+        _connector.service(failing);
+        assertThat(_connector.getChannelPoolMisses(), equalTo(1L));
+
+        // The channel of the failed request is reused by the next request on the connection.
+        _connector.service(new StubNestedRequestResponse().connectionId("1"));
+        assertThat(_connector.getChannelPoolHits(), equalTo(1L));
+        assertThat(_connector.getChannelPoolMisses(), equalTo(1L));
+    }
+
+    @Test
+    public void testLatenciesRecorded() throws Exception
+    {
+        _connector.setRecordLatencies(true);
+        start(new OkHandler());
+        _connector.service(new StubNestedRequestResponse());
+
+        for (NestedConnector.Phase phase : NestedConnector.Phase.values())
+        {
+            assertThat(phase.toString(), _connector.getLatencyHistogram(phase).getCount(), equalTo(1L));
+        }
+    }
+
+    @Test
+    public void testLatenciesNotRecorded() throws Exception
+    {
+        start(new OkHandler());
+        _connector.service(new StubNestedRequestResponse());
+
+        for (NestedConnector.Phase phase : NestedConnector.Phase.values())
+        {
+            assertThat(phase.toString(), _connector.getLatencyHistogram(phase).getCount(), equalTo(0L));
+        }
+    }
+
+    @Test
+    public void testRequestWithoutContent() throws Exception
+    {
+        start(new OkHandler());
+        StubNestedRequestResponse requestResponse = new StubNestedRequestResponse().contentComplete(false);
+        _connector.service(requestResponse);
+
+        // A GET without Content-Length or Transfer-Encoding is at EOF without reading from the outer server.
+        assertThat(requestResponse.getReadListener(), nullValue());
+    }
+
+    @Test
+    public void testRequestWithZeroContentLength() throws Exception
+    {
+        start(new OkHandler());
+        StubNestedRequestResponse requestResponse = new StubNestedRequestResponse()
+            .method("POST")
+            .header("Content-Length", "0")
+            .contentLength(0)
+            .contentComplete(false);
+        _connector.service(requestResponse);
+        assertThat(requestResponse.getReadListener(), nullValue());
+    }
+
+    @Test
+    public void testChunkedRequest() throws Exception
+    {
+        start(new OkHandler());
+        StubNestedRequestResponse requestResponse = new StubNestedRequestResponse()
+            .method("POST")
+            .header("Transfer-Encoding", "chunked")
+            .contentComplete(false);
+        _connector.service(requestResponse);
+
+        // Content of unknown length must still be read from the outer server as it arrives.
+        assertThat(requestResponse.getReadListener(), notNullValue());
+    }
+
+    @Test
+    public void testCommitWithFlushBuffer() throws Exception
+    {
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException
+            {
+                baseRequest.setHandled(true);
+                response.setStatus(201);
+                response.setHeader("X-Test", "flushed");
+
+                // Commits the response with an empty non-last write, later changes to the headers are not sent.
+                response.flushBuffer();
+                response.setHeader("X-Test", "changed");
+            }
+        });
+        StubNestedRequestResponse requestResponse = new StubNestedRequestResponse();
+        _connector.service(requestResponse);
+
+        assertThat(requestResponse.getStatus(), equalTo(201));
+        assertThat(requestResponse.getResponseHeader("X-Test"), equalTo("flushed"));
+    }
+
+    private static class OkHandler extends AbstractHandler
+    {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException
+        {
+            baseRequest.setHandled(true);
+            response.setStatus(200);
+        }
+    }
+}
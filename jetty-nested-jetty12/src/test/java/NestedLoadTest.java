@@ -0,0 +1,282 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesRequestContent;
+import org.eclipse.jetty.nested.JettyNestedHandler;
+import org.eclipse.jetty.nested.util.LatencyHistogram;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.shaded.deploy.DeploymentManager;
+import org.eclipse.jetty.shaded.deploy.providers.WebAppProvider;
+import org.eclipse.jetty.shaded.server.handler.ContextHandlerCollection;
+import org.eclipse.jetty.shaded.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * <p>Load test comparing the demo-spec webapp deployed in a nested server with the same webapp deployed
+ * directly in a Jetty 10 server. It is excluded from the default build, run it with:</p>
+ * <pre>mvn test -pl jetty-nested-jetty12 -Pload-test -Dload.concurrency=32 -Dload.duration=30</pre>
+ * <p>A servlet deployed next to the webapp provides the POST, upload and streaming endpoints.</p>
+ */
+public class NestedLoadTest
+{
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency", 16);
+    private static final int WARMUP = Integer.getInteger("load.warmup", 5);
+    private static final int DURATION = Integer.getInteger("load.duration", 10);
+    private static final int SMALL_POST_SIZE = 128;
+    private static final int UPLOAD_SIZE = 4 * 1024 * 1024;
+    private static final int STREAM_SIZE = 1024 * 1024;
+    private static final int STREAM_CHUNK_SIZE = 8 * 1024;
+
+    private static Server _nestedServer;
+    private static ServerConnector _nestedConnector;
+    private static org.eclipse.jetty.shaded.server.Server _directServer;
+    private static org.eclipse.jetty.shaded.server.ServerConnector _directConnector;
+    private static HttpClient _httpClient;
+
+    @BeforeAll
+    public static void before() throws Exception
+    {
+        // The nested stack, a Jetty 12 server nesting a Jetty 10 server.
+        _nestedServer = new Server();
+        _nestedConnector = new ServerConnector(_nestedServer);
+        _nestedServer.addConnector(_nestedConnector);
+        JettyNestedHandler nestedHandler = new JettyNestedHandler();
+        _nestedServer.setHandler(nestedHandler);
+        deploy(nestedHandler.getNestedServer());
+        _nestedServer.start();
+
+        // The direct stack, the same Jetty 10 server without nesting.
+        _directServer = new org.eclipse.jetty.shaded.server.Server();
+        _directConnector = new org.eclipse.jetty.shaded.server.ServerConnector(_directServer);
+        _directServer.addConnector(_directConnector);
+        deploy(_directServer);
+        _directServer.start();
+
+        _httpClient = new HttpClient();
+        _httpClient.setMaxConnectionsPerDestination(CONCURRENCY);
+        _httpClient.setMaxRequestsQueuedPerDestination(CONCURRENCY * 2);
+        _httpClient.start();
+    }
+
+    private static void deploy(org.eclipse.jetty.shaded.server.Server server)
+    {
+        ContextHandlerCollection contexts = new ContextHandlerCollection();
+        server.setHandler(contexts);
+
+        ServletContextHandler loadContext = new ServletContextHandler();
+        loadContext.setContextPath("/load");
+        loadContext.addServlet(LoadServlet.class, "/*");
+        contexts.addHandler(loadContext);
+
+        String webapps = Objects.requireNonNull(NestedLoadTest.class
+            .getResource("jetty-base/webapps"))
+            .getPath();
+        String defaultsDescriptor = Objects.requireNonNull(NestedLoadTest.class
+            .getResource("webdefault.xml"))
+            .getPath();
+        DeploymentManager deploymentManager = new DeploymentManager();
+        deploymentManager.setContexts(contexts);
+        WebAppProvider webAppProvider = new WebAppProvider();
+        webAppProvider.setExtractWars(true);
+        webAppProvider.setDefaultsDescriptor(defaultsDescriptor);
+        webAppProvider.setMonitoredDirName(webapps);
+        deploymentManager.addAppProvider(webAppProvider);
+        server.addBean(deploymentManager);
+    }
+
+    @AfterAll
+    public static void after() throws Exception
+    {
+        _httpClient.stop();
+        _nestedServer.stop();
+        _directServer.stop();
+    }
+
+    public static class LoadServlet extends HttpServlet
+    {
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException
+        {
+            // Consume any request content.
+            long received = 0;
+            byte[] buffer = new byte[STREAM_CHUNK_SIZE];
+            InputStream inputStream = req.getInputStream();
+            for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer))
+            {
+                received += read;
+            }
+
+            if ("/stream".equals(req.getPathInfo()))
+            {
+                OutputStream outputStream = resp.getOutputStream();
+                for (int written = 0; written < STREAM_SIZE; written += buffer.length)
+                {
+                    outputStream.write(buffer);
+                    outputStream.flush();
+                }
+                return;
+            }
+
+            resp.setContentType("text/plain");
+            resp.getWriter().print(received);
+        }
+    }
+
+    @Test
+    public void testGet() throws Exception
+    {
+        test("GET", port -> _httpClient.newRequest("localhost", port)
+            .path("/demo-spec/index.html"), content -> content.length > 0);
+    }
+
+    @Test
+    public void testSmallPost() throws Exception
+    {
+        byte[] content = "x".repeat(SMALL_POST_SIZE).getBytes(StandardCharsets.US_ASCII);
+        test("small POST", port -> _httpClient.newRequest("localhost", port)
+            .method("POST")
+            .path("/load/post")
+            .body(new BytesRequestContent(content)), received(SMALL_POST_SIZE));
+    }
+
+    @Test
+    public void testLargeUpload() throws Exception
+    {
+        byte[] content = new byte[UPLOAD_SIZE];
+        test("large upload", port -> _httpClient.newRequest("localhost", port)
+            .method("POST")
+            .path("/load/upload")
+            .body(new BytesRequestContent(content)), received(UPLOAD_SIZE));
+    }
+
+    @Test
+    public void testStreaming() throws Exception
+    {
+        test("streaming", port -> _httpClient.newRequest("localhost", port)
+            .path("/load/stream"), content -> content.length == STREAM_SIZE);
+    }
+
+    /**
+     * @param size the size of the request content.
+     * @return a check that the LoadServlet responded with the number of content bytes it received.
+     */
+    private static Predicate<byte[]> received(int size)
+    {
+        return content -> Integer.toString(size).equals(new String(content, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @param name the name of the test.
+     * @param newRequest creates a request to the given port.
+     * @param validContent checks the content of each response, a response with invalid content counts as a failure.
+     */
+    private void test(String name, Function<Integer, Request> newRequest, Predicate<byte[]> validContent) throws Exception
+    {
+        Result nested = run(() -> newRequest.apply(_nestedConnector.getLocalPort()), validContent);
+        Result direct = run(() -> newRequest.apply(_directConnector.getLocalPort()), validContent);
+
+        System.err.printf("%n%s, concurrency=%d, duration=%ds%n", name, CONCURRENCY, DURATION);
+        System.err.printf("  %-8s %10s %10s %10s %10s %10s%n", "", "req/s", "p50(us)", "p99(us)", "p999(us)", "max(us)");
+        nested.print("nested");
+        direct.print("direct");
+
+        assertThat(name + " nested failures", nested.failures.get(), equalTo(0L));
+        assertThat(name + " direct failures", direct.failures.get(), equalTo(0L));
+        assertThat(name + " nested requests", nested.histogram.getCount(), greaterThan(0L));
+    }
+
+    private Result run(RequestFactory requestFactory, Predicate<byte[]> validContent) throws Exception
+    {
+        // Warm up both stacks with the same load, then measure.
+        load(requestFactory, validContent, WARMUP);
+        return load(requestFactory, validContent, DURATION);
+    }
+
+    private Result load(RequestFactory requestFactory, Predicate<byte[]> validContent, int seconds) throws Exception
+    {
+        Result result = new Result(seconds);
+        Semaphore permits = new Semaphore(CONCURRENCY);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        while (System.nanoTime() < end)
+        {
+            permits.acquire();
+            long begin = System.nanoTime();
+            requestFactory.newRequest().send(new BufferingResponseListener(2 * STREAM_SIZE)
+            {
+                @Override
+                public void onComplete(org.eclipse.jetty.client.api.Result r)
+                {
+                    result.histogram.record(System.nanoTime() - begin);
+                    if (r.isFailed() || r.getResponse().getStatus() != 200 || !validContent.test(getContent()))
+                        result.failures.incrementAndGet();
+                    permits.release();
+                }
+            });
+        }
+
+        // Wait for all outstanding requests to complete.
+        permits.acquire(CONCURRENCY);
+        return result;
+    }
+
+    private interface RequestFactory
+    {
+        Request newRequest();
+    }
+
+    private static class Result
+    {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final AtomicLong failures = new AtomicLong();
+        private final int seconds;
+
+        private Result(int seconds)
+        {
+            this.seconds = seconds;
+        }
+
+        private void print(String name)
+        {
+            System.err.printf("  %-8s %10d %10d %10d %10d %10d%n", name,
+                histogram.getCount() / seconds,
+                TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(50)),
+                TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99)),
+                TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99.9)),
+                TimeUnit.NANOSECONDS.toMicros(histogram.getMax()));
+        }
+    }
+}
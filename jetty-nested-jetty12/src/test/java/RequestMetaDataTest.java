@@ -0,0 +1,115 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.nested.StubNestedRequestResponse;
+import org.eclipse.jetty.shaded.http.HttpField;
+import org.eclipse.jetty.shaded.http.HttpFields;
+import org.eclipse.jetty.shaded.http.HttpHeader;
+import org.eclipse.jetty.shaded.http.HttpURI;
+import org.eclipse.jetty.shaded.http.MetaData;
+import org.eclipse.jetty.shaded.nested.internal.NestedConnection;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests the translation of the request metadata of the outer server to the request metadata of the nested server.
+ */
+public class RequestMetaDataTest
+{
+    @Test
+    public void testHeaders()
+    {
+        StubNestedRequestResponse requestResponse = new StubNestedRequestResponse()
+            .header("Host", "localhost")
+            .header("Accept", "*/*")
+            .header("X-Custom", "one")
+            .header("X-Custom", "two")
+            .header("Cookie", "a=1")
+            .header("Cookie", "b=2");
+
+        HttpFields fields = NestedConnection.newRequestMetaData(requestResponse).getFields();
+        assertThat(fields.size(), equalTo(requestResponse.getHeaderCount()));
+
+        // Every field is transferred in order, including the repeated values of a header.
+        List<String> transferred = new ArrayList<>();
+        for (HttpField field : fields)
+        {
+            transferred.add(field.getName() + ": " + field.getValue());
+        }
+        assertThat(transferred, contains(
+            "Host: localhost",
+            "Accept: */*",
+            "X-Custom: one",
+            "X-Custom: two",
+            "Cookie: a=1",
+            "Cookie: b=2"));
+
+        // Known header names are resolved to their HttpHeader.
+        assertThat(fields.getField(0).getHeader(), equalTo(HttpHeader.HOST));
+        assertThat(fields.getValuesList("X-Custom"), contains("one", "two"));
+    }
+
+    @Test
+    public void testURI()
+    {
+        HttpURI uri = NestedConnection.newRequestMetaData(new StubNestedRequestResponse().requestURI("/path/info?a=1")).getURI();
+        assertThat(uri.getScheme(), equalTo("http"));
+        assertThat(uri.getHost(), equalTo("localhost"));
+        assertThat(uri.getPort(), equalTo(8080));
+        assertThat(uri.getPath(), equalTo("/path/info"));
+        assertThat(uri.getQuery(), equalTo("a=1"));
+        assertThat(uri.isAmbiguous(), is(false));
+    }
+
+    @Test
+    public void testURINotParsedAgain()
+    {
+        StubNestedRequestResponse requestResponse = new StubNestedRequestResponse()
+        {
+            @Override
+            public String getRequestURI()
+            {
+                throw new AssertionError("URI without violations parsed again");
+            }
+        }.requestURI("/path/info?a=1");
+
+        HttpURI uri = NestedConnection.newRequestMetaData(requestResponse).getURI();
+        assertThat(uri.getPath(), equalTo("/path/info"));
+        assertThat(uri.getQuery(), equalTo("a=1"));
+    }
+
+    @Test
+    public void testAmbiguousURI()
+    {
+        // The violations of the path are recorded, so the nested server can reject ambiguous requests.
+        HttpURI segment = NestedConnection.newRequestMetaData(new StubNestedRequestResponse().requestURI("/%2e%2e/WEB-INF/web.xml")).getURI();
+        assertThat(segment.isAmbiguous(), is(true));
+
+        HttpURI separator = NestedConnection.newRequestMetaData(new StubNestedRequestResponse().requestURI("/foo%2Fbar")).getURI();
+        assertThat(separator.isAmbiguous(), is(true));
+    }
+
+    @Test
+    public void testNoHeaders()
+    {
+        MetaData.Request metaData = NestedConnection.newRequestMetaData(new StubNestedRequestResponse());
+        assertThat(metaData.getFields().size(), equalTo(0));
+    }
+}
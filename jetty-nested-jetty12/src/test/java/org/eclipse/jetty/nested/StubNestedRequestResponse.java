@@ -0,0 +1,408 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2021 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.nested;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.nested.api.NestedRequestResponse;
+
+/**
+ * A {@link NestedRequestResponse} without an outer server, which completes every write immediately,
+ * so that the nested side of the boundary can be tested and measured in isolation.
+ */
+public class StubNestedRequestResponse implements NestedRequestResponse
+{
+    private final Map<String, List<String>> _headers = new LinkedHashMap<>();
+    private final List<Runnable> _closeListeners = new ArrayList<>();
+    private final long _beginNanoTime = System.nanoTime();
+    private String _requestURI = "/";
+    private String _path = "/";
+    private String _query;
+    private boolean _uriViolations;
+    private String _method = "GET";
+    private Method _httpMethod = Method.GET;
+    private String _connectionId;
+    private long _contentLength = -1;
+    private boolean _contentComplete = true;
+    private ReadListener _readListener;
+    private final Map<String, String> _responseHeaders = new LinkedHashMap<>();
+    private int _status;
+    private long _bytesWritten;
+
+    public StubNestedRequestResponse requestURI(String requestURI)
+    {
+        _requestURI = requestURI;
+        int q = requestURI.indexOf('?');
+        _path = q < 0 ? requestURI : requestURI.substring(0, q);
+        _query = q < 0 ? null : requestURI.substring(q + 1);
+        // Parse the URI as the outer server would, to know whether it has violations.
+        _uriViolations = HttpURI.build(requestURI).hasViolations();
+        return this;
+    }
+
+    public StubNestedRequestResponse method(String method)
+    {
+        _method = method;
+        _httpMethod = null;
+        for (Method m : Method.values())
+        {
+            if (m.asString().equals(method))
+                _httpMethod = m;
+        }
+        return this;
+    }
+
+    public StubNestedRequestResponse header(String name, String value)
+    {
+        _headers.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        return this;
+    }
+
+    public StubNestedRequestResponse connectionId(String connectionId)
+    {
+        _connectionId = connectionId;
+        return this;
+    }
+
+    public StubNestedRequestResponse contentLength(long contentLength)
+    {
+        _contentLength = contentLength;
+        return this;
+    }
+
+    /**
+     * @param contentComplete whether the content has been received, if not a read listener is expected for it.
+     */
+    public StubNestedRequestResponse contentComplete(boolean contentComplete)
+    {
+        _contentComplete = contentComplete;
+        return this;
+    }
+
+    /**
+     * @return the listener set by the nested server to be notified of content, or null if none was set.
+     */
+    public ReadListener getReadListener()
+    {
+        return _readListener;
+    }
+
+    /**
+     * Close the outer connection of this request, notifying the connection close listeners.
+     */
+    public void closeConnection()
+    {
+        for (Runnable listener : _closeListeners)
+        {
+            listener.run();
+        }
+    }
+
+    public int getConnectionCloseListenerCount()
+    {
+        return _closeListeners.size();
+    }
+
+    /**
+     * @return the status the response was committed with, or 0 if it has not been committed.
+     */
+    public int getStatus()
+    {
+        return _status;
+    }
+
+    /**
+     * @return the value of a header the response was committed with, or null if there was none.
+     */
+    public String getResponseHeader(String name)
+    {
+        return _responseHeaders.get(name);
+    }
+
+    public long getBytesWritten()
+    {
+        return _bytesWritten;
+    }
+
+    @Override
+    public void startAsync()
+    {
+    }
+
+    @Override
+    public void stopAsync()
+    {
+    }
+
+    @Override
+    public long getBeginNanoTime()
+    {
+        return _beginNanoTime;
+    }
+
+    @Override
+    public String getConnectionId()
+    {
+        return _connectionId;
+    }
+
+    @Override
+    public void addConnectionCloseListener(Runnable listener)
+    {
+        _closeListeners.add(listener);
+    }
+
+    @Override
+    public String getRequestURI()
+    {
+        return _requestURI;
+    }
+
+    @Override
+    public String getProtocol()
+    {
+        return "HTTP/1.1";
+    }
+
+    @Override
+    public String getMethod()
+    {
+        return _method;
+    }
+
+    @Override
+    public Method getHttpMethod()
+    {
+        return _httpMethod;
+    }
+
+    @Override
+    public Version getHttpVersion()
+    {
+        return Version.HTTP_1_1;
+    }
+
+    @Override
+    public String getScheme()
+    {
+        return "http";
+    }
+
+    @Override
+    public String getHost()
+    {
+        return "localhost";
+    }
+
+    @Override
+    public int getPort()
+    {
+        return 8080;
+    }
+
+    @Override
+    public String getPath()
+    {
+        return _path;
+    }
+
+    @Override
+    public String getQuery()
+    {
+        return _query;
+    }
+
+    @Override
+    public boolean hasURIViolations()
+    {
+        return _uriViolations;
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames()
+    {
+        return Collections.enumeration(_headers.keySet());
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String headerName)
+    {
+        List<String> values = _headers.get(headerName);
+        return values == null ? Collections.emptyEnumeration() : Collections.enumeration(values);
+    }
+
+    @Override
+    public int getHeaderCount()
+    {
+        int count = 0;
+        for (List<String> values : _headers.values())
+        {
+            count += values.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void forEachHeader(BiConsumer<String, String> action)
+    {
+        for (Map.Entry<String, List<String>> entry : _headers.entrySet())
+        {
+            for (String value : entry.getValue())
+            {
+                action.accept(entry.getKey(), value);
+            }
+        }
+    }
+
+    @Override
+    public boolean isSecure()
+    {
+        return false;
+    }
+
+    @Override
+    public long getContentLengthLong()
+    {
+        return _contentLength;
+    }
+
+    @Override
+    public boolean isContentComplete()
+    {
+        return _contentComplete;
+    }
+
+    @Override
+    public boolean isReadReady()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isReadClosed()
+    {
+        return true;
+    }
+
+    @Override
+    public void closeInput()
+    {
+    }
+
+    @Override
+    public Content read()
+    {
+        return null;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener)
+    {
+        _readListener = readListener;
+    }
+
+    @Override
+    public void setStatus(int status)
+    {
+    }
+
+    @Override
+    public void addHeader(String name, String value)
+    {
+    }
+
+    @Override
+    public void commit(int status, Fields fields, boolean last, NestedCallback callback, ByteBuffer... content)
+    {
+        _status = status;
+        for (int i = 0; i < fields.size(); i++)
+        {
+            _responseHeaders.putIfAbsent(fields.getName(i), fields.getValue(i));
+        }
+        write(last, callback, content);
+    }
+
+    @Override
+    public boolean isWriteReady()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isWriteClosed()
+    {
+        return false;
+    }
+
+    @Override
+    public void write(boolean last, NestedCallback callback, ByteBuffer... content)
+    {
+        for (ByteBuffer buffer : content)
+        {
+            _bytesWritten += buffer.remaining();
+        }
+        callback.succeeded();
+    }
+
+    @Override
+    public void closeOutput()
+    {
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener)
+    {
+        try
+        {
+            writeListener.onWritePossible();
+        }
+        catch (IOException e)
+        {
+            writeListener.onError(e);
+        }
+    }
+
+    @Override
+    public String getRemoteAddr()
+    {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public int getRemotePort()
+    {
+        return 0;
+    }
+
+    @Override
+    public String getLocalAddr()
+    {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public int getLocalPort()
+    {
+        return 0;
+    }
+}